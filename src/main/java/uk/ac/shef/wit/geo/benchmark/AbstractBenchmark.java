@@ -3,30 +3,32 @@ package uk.ac.shef.wit.geo.benchmark;
 import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
 import org.openjdk.jmh.results.RunResult;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ThreadLocalRandom;
 
 @State(Scope.Benchmark)
 public abstract class AbstractBenchmark {
 
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
     static final String indexPrefix = "benchmark-index-points";
     static final String queryPrefix = "benchmark-query-points";
     static final String outputDirectoryName = "out";
@@ -39,15 +41,22 @@ public abstract class AbstractBenchmark {
     @Param({"1000", "10000", "100000", "1000000"})
     int queryRadiusMetres = 1000;
 
-    // roughly the UK
-    int minLat = 48;
-    int maxLat = 58;
-    int minLon = -5;
-    int maxLon = 5;
+    // sweep with -p distribution=uniform,clusters,zipf,global
+    @Param({"uniform"})
+    PointDistribution distribution = PointDistribution.uniform;
+
+    // sweep with -p queryWorkload=matching,empty,repeating
+    @Param({"matching"})
+    QueryWorkload queryWorkload = QueryWorkload.matching;
+
+    private PointStore queryPoints;
+    private String queryPointsName;
 
     final List<Long> candidateCounts = new ArrayList<>();
     final List<Long> nearestCounts = new ArrayList<>();
-    final List<Map.Entry<Integer, Double>> results = new ArrayList<>();
+    // id and distance of the nearest point found for each query point, 0 and -1 if none was found
+    private int[] resultIds;
+    private double[] resultDistances;
 
     File getOutputDirectory() {
         return createDirectory(outputDirectoryName);
@@ -65,53 +74,116 @@ public abstract class AbstractBenchmark {
         return path.toFile();
     }
 
-    synchronized List<double[]> getIndexPoints() {
-        return getPoints(indexPrefix, numberOfIndexPoints);
+    /**
+     * The suffix of the point files and results for the distribution and query workload,
+     * empty for the original uniform points so existing files and indexes are still used.
+     */
+    private String getDistributionSuffix() {
+        return distribution == PointDistribution.uniform ? "" : "-" + distribution;
+    }
+
+    private String getWorkloadSuffix() {
+        return queryWorkload == QueryWorkload.matching ? "" : "-" + queryWorkload;
+    }
+
+    /**
+     * The name of the index point file, also the name of the indexes built from it.
+     */
+    String getIndexName() {
+        return indexPrefix + "-" + numberOfIndexPoints + getDistributionSuffix();
     }
 
-    synchronized List<double[]> getQueryPoints() {
-        return getPoints(queryPrefix, numberOfQueryPoints);
+    String getQueryName() {
+        return queryPrefix + "-" + numberOfQueryPoints + getDistributionSuffix() + getWorkloadSuffix();
+    }
+
+    synchronized PointStore getIndexPoints() {
+        return PointStore.of(getIndexPointFile());
+    }
+
+    /**
+     * The index points as the mapped file, for engines built without copying the points onto the heap.
+     */
+    synchronized PointFile getIndexPointFile() {
+        return getPointFile(getIndexName(), numberOfIndexPoints, QueryWorkload.matching);
+    }
+
+    synchronized PointStore getQueryPoints() {
+        String name = getQueryName();
+        if (queryPoints == null || !name.equals(queryPointsName)) {
+            queryPoints = PointStore.of(getPointFile(name, numberOfQueryPoints, queryWorkload));
+            queryPointsName = name;
+            resultIds = new int[queryPoints.size()];
+            resultDistances = new double[queryPoints.size()];
+        }
+        return queryPoints;
     }
 
-    private List<double[]> getPoints(String prefix, int numberOfPoints) {
+    static long getUsedHeapBytes() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Logs the heap retained by the index built since {@code heapBefore} was measured,
+     * the index points themselves must still be reachable so they are not included.
+     */
+    void logIndexHeapUsage(long heapBefore, PointStore points) {
+        long indexBytes = getUsedHeapBytes() - heapBefore;
+        logger.info("{}: index heap {} MB, {} bytes/point (point store {} bytes/point)",
+                getClass().getSimpleName(),
+                indexBytes / (1024 * 1024),
+                points.size() == 0 ? 0 : indexBytes / points.size(),
+                points.size() == 0 ? 0 : points.getHeapBytes() / points.size());
+    }
+
+    /**
+     * The binary point file is the default source, it is imported from an existing CSV file
+     * of the same name or otherwise created from random points of the {@link #distribution}.
+     * The seed is taken from the file name, so the index and query points differ but are the same on every run.
+     */
+    PointFile getPointFile(String filename, int numberOfPoints, QueryWorkload workload) {
         getOutputDirectory();
-        String filename = prefix + "-" + numberOfPoints + ".csv";
-        Path path = Paths.get(outputDirectoryName, filename);
-        List<double[]> indexPoints = new ArrayList<>();
-        if (Files.exists(path)) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(path.toFile()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] latlon = line.split(",");
-                    indexPoints.add(new double[]{Double.parseDouble(latlon[0]), Double.parseDouble(latlon[1])});
+        Path path = Paths.get(outputDirectoryName, filename + PointFile.extension);
+        PointFile pointFile;
+        try {
+            if (Files.exists(path)) {
+                pointFile = PointFile.map(path);
+            } else {
+                Path csvPath = Paths.get(outputDirectoryName, filename + ".csv");
+                if (Files.exists(csvPath)) {
+                    pointFile = PointFile.importCsv(csvPath, path);
+                } else if (workload == QueryWorkload.repeating) {
+                    double[] lats = new double[numberOfPoints];
+                    double[] lons = new double[numberOfPoints];
+                    distribution.generate(workload, filename.hashCode(), lats, lons, numberOfPoints);
+                    PointFile.write(path, lats, lons, numberOfPoints);
+                    pointFile = PointFile.map(path);
+                } else {
+                    // generated a range at a time, so there can be more points than fit on the heap
+                    long seed = filename.hashCode();
+                    PointFile.write(path, numberOfPoints, (offset, lats, lons, length) ->
+                            distribution.generate(workload, seed, offset, lats, lons, length));
+                    pointFile = PointFile.map(path);
                 }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            if (indexPoints.size() != numberOfPoints) {
-                throw new RuntimeException("File contains incorrect number of points. Expected " +
-                        numberOfPoints + " found " + indexPoints.size());
-            }
-        } else {
-            for (int i = 0; i < numberOfPoints; i++) {
-                indexPoints.add(createRandomLatLon());
-            }
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(path.toFile()))) {
-                for (double[] latlon : indexPoints) {
-                    writer.write(latlon[0] + "," + latlon[1]);
-                    writer.newLine();
-                }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (pointFile.size() != numberOfPoints) {
+            throw new RuntimeException("File contains incorrect number of points. Expected " +
+                    numberOfPoints + " found " + pointFile.size());
         }
-        return indexPoints;
+        return pointFile;
     }
 
-    private double[] createRandomLatLon() {
-        final double latitude = ThreadLocalRandom.current().nextDouble(minLat, maxLat);
-        final double longitude = ThreadLocalRandom.current().nextDouble(minLon, maxLon);
-        return new double[]{latitude, longitude};
+    /**
+     * Records the result of a query point, overwriting the result of the previous benchmark iteration.
+     */
+    void setResult(int query, int id, double distance) {
+        resultIds[query] = id;
+        resultDistances[query] = distance;
     }
 
     protected void teardown() {
@@ -128,13 +200,14 @@ public abstract class AbstractBenchmark {
                 "-" + this.getClass().getSimpleName() +
                 "-" + numberOfIndexPoints +
                 "-" + queryRadiusMetres +
+                getDistributionSuffix() + getWorkloadSuffix() +
                 ".csv";
         Path path = Paths.get(outputDirectoryName, filename);
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(path.toFile()))) {
-            for (Map.Entry<Integer, Double> result : results) {
-                writer.write(String.valueOf(result.getKey()));
+            for (int q = 0; resultIds != null && q < resultIds.length; q++) {
+                writer.write(String.valueOf(resultIds[q]));
                 writer.write('\t');
-                writer.write(String.valueOf(result.getValue()));
+                writer.write(String.valueOf(resultDistances[q]));
                 writer.newLine();
             }
         } catch (IOException e) {
@@ -149,7 +222,25 @@ public abstract class AbstractBenchmark {
 //                .include(GeotoolsBenchmark.class.getSimpleName())
 //                .include(JeoBenchmark.class.getSimpleName())
 //                .include(JsiBenchmark.class.getSimpleName())
+//                .include(PackedRTreeBenchmark.class.getSimpleName())
+//                .include(GridBenchmark.class.getSimpleName())
+//                .include(StrTreeBenchmark.class.getSimpleName())
+//                .include(VpTreeBenchmark.class.getSimpleName())
+//                .include(QuantizedBenchmark.class.getSimpleName())
+//                .include(DistanceKernelBenchmark.class.getSimpleName())
+//                .include(ShardedBenchmark.class.getSimpleName())
+//                .include(BuildBenchmark.class.getSimpleName())
+//                .include(LatencyBenchmark.class.getSimpleName())
+//                .include(KNearestBenchmark.class.getSimpleName())
+//                .include(RangeBenchmark.class.getSimpleName())
+//                .include(ViewportBenchmark.class.getSimpleName())
+//                .include(SnapshotBenchmark.class.getSimpleName())
+//                .include(CacheBenchmark.class.getSimpleName())
+//                .include(MixedWorkloadBenchmark.class.getSimpleName())
+//                .include(IngestBenchmark.class.getSimpleName())
                 .include(LuceneBenchmark.class.getSimpleName())
+                // bytes allocated per operation and the number of collections, alongside each score
+                .addProfiler(GCProfiler.class)
                 .build();
 
         Collection<RunResult> runResults = new Runner(opt).run();
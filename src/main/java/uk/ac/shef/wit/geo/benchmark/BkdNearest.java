@@ -0,0 +1,140 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.apache.lucene.geo.GeoEncodingUtils;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Nearest {@code LatLonPoint} within a radius, by a best-first traversal of the BKD trees of all the segments
+ * through {@link PointValues}.
+ * <p>
+ * Cells are visited in order of the haversine sort key to their bounding box, cells beyond the radius are never
+ * queued and the search stops as soon as the nearest cell left is further than the nearest point found.
+ * Unlike the sandbox {@code LatLonPointPrototypeQueries.nearest} the radius bounds the search from the start.
+ * An instance holds the search scratch state so each searching thread needs its own.
+ */
+final class BkdNearest {
+
+    private static final ScoreDoc[] noScoreDocs = new ScoreDoc[0];
+
+    private final String fieldName;
+    private final List<LeafReaderContext> leaves;
+    private final SortField[] sortFields;
+
+    private final NodeQueue queue = new NodeQueue();
+    private final List<PointValues.PointTree> cells = new ArrayList<>();
+    private int[] cellLeaves = new int[64];
+
+    // state of the leaf being visited and the nearest point so far
+    private double queryLat, queryLon;
+    private Bits liveDocs;
+    private int docBase;
+    private int nearestDoc;
+    private double nearestKey;
+
+    private final PointValues.IntersectVisitor visitor = new PointValues.IntersectVisitor() {
+        @Override
+        public void visit(int docID) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void visit(int docID, byte[] packedValue) {
+            if (liveDocs != null && !liveDocs.get(docID)) {
+                return;
+            }
+            double lat = GeoEncodingUtils.decodeLatitude(packedValue, 0);
+            double lon = GeoEncodingUtils.decodeLongitude(packedValue, Integer.BYTES);
+            double key = GeoMath.sortKey(queryLat, queryLon, lat, lon);
+            if (key < nearestKey) {
+                nearestKey = key;
+                nearestDoc = docBase + docID;
+            }
+        }
+
+        @Override
+        public PointValues.Relation compare(byte[] minPackedValue, byte[] maxPackedValue) {
+            return PointValues.Relation.CELL_CROSSES_QUERY;
+        }
+    };
+
+    BkdNearest(IndexReader indexReader, String fieldName) {
+        this.fieldName = fieldName;
+        this.leaves = indexReader.leaves();
+        this.sortFields = new SortField[]{new SortField(fieldName, SortField.Type.DOUBLE)};
+    }
+
+    /**
+     * @return the nearest document, with its distance in metres as the sort value, or no documents if none is
+     * closer than the radius; the same form as the sandbox nearest query
+     */
+    TopFieldDocs nearest(double lat, double lon, double radiusMeters) throws IOException {
+        queryLat = lat;
+        queryLon = lon;
+        nearestDoc = -1;
+        nearestKey = GeoMath.metersToSortKey(radiusMeters);
+        queue.clear();
+        cells.clear();
+
+        for (int leaf = 0; leaf < leaves.size(); leaf++) {
+            PointValues values = leaves.get(leaf).reader().getPointValues(fieldName);
+            if (values != null && values.size() > 0) {
+                push(values.getPointTree(), leaf);
+            }
+        }
+
+        while (!queue.isEmpty() && queue.peekDistance() < nearestKey) {
+            int cell = queue.peekNode();
+            queue.pop();
+            PointValues.PointTree tree = cells.get(cell);
+            cells.set(cell, null);
+            int leaf = cellLeaves[cell];
+            if (tree.moveToChild()) {
+                do {
+                    push(tree.clone(), leaf);
+                } while (tree.moveToSibling());
+            } else {
+                LeafReaderContext context = leaves.get(leaf);
+                liveDocs = context.reader().getLiveDocs();
+                docBase = context.docBase;
+                tree.visitDocValues(visitor);
+            }
+        }
+
+        if (nearestDoc < 0) {
+            return new TopFieldDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), noScoreDocs, sortFields);
+        }
+        ScoreDoc[] scoreDocs = {new FieldDoc(nearestDoc, Float.NaN, new Object[]{GeoMath.sortKeyToMeters(nearestKey)})};
+        return new TopFieldDocs(new TotalHits(1, TotalHits.Relation.EQUAL_TO), scoreDocs, sortFields);
+    }
+
+    private void push(PointValues.PointTree tree, int leaf) {
+        byte[] min = tree.getMinPackedValue();
+        byte[] max = tree.getMaxPackedValue();
+        double key = GeoMath.boxSortKey(queryLat, queryLon,
+                GeoEncodingUtils.decodeLatitude(min, 0), GeoEncodingUtils.decodeLatitude(max, 0),
+                GeoEncodingUtils.decodeLongitude(min, Integer.BYTES), GeoEncodingUtils.decodeLongitude(max, Integer.BYTES));
+        if (key >= nearestKey) {
+            return;
+        }
+        int cell = cells.size();
+        cells.add(tree);
+        if (cell == cellLeaves.length) {
+            cellLeaves = Arrays.copyOf(cellLeaves, cell * 2);
+        }
+        cellLeaves[cell] = leaf;
+        queue.push(key, cell);
+    }
+}
@@ -0,0 +1,161 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+/**
+ * Exhaustive search of every point with a {@link DistanceKernel}, exact, with no index to build beyond the unit
+ * sphere positions of the points, and a baseline for the engines: its cost is the cost of evaluating every
+ * distance, the work the indexes exist to avoid. The positions are in the order of the point store.
+ */
+final class BruteForceIndex
+        implements PointIndex {
+
+    private final PointStore points;
+    private final DistanceKernel kernel;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+
+    BruteForceIndex(PointStore points) {
+        this(points, DistanceKernel.fastest());
+    }
+
+    BruteForceIndex(PointStore points, DistanceKernel kernel) {
+        this.points = points;
+        this.kernel = kernel.check();
+        int size = points.size();
+        xs = new double[size];
+        ys = new double[size];
+        zs = new double[size];
+        for (int i = 0; i < size; i++) {
+            double lat = Math.toRadians(points.getLat(i));
+            double lon = Math.toRadians(points.getLon(i));
+            xs[i] = Math.cos(lat) * Math.cos(lon);
+            ys[i] = Math.cos(lat) * Math.sin(lon);
+            zs[i] = Math.sin(lat);
+        }
+    }
+
+    DistanceKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * @return the position in the point store of the nearest point closer than {@code maxMeters}, or -1
+     */
+    int nearest(double lat, double lon, double maxMeters) {
+        double latRadians = Math.toRadians(lat);
+        double lonRadians = Math.toRadians(lon);
+        return kernel.nearest(xs, ys, zs, 0, xs.length,
+                Math.cos(latRadians) * Math.cos(lonRadians),
+                Math.cos(latRadians) * Math.sin(lonRadians),
+                Math.sin(latRadians),
+                DistanceKernel.metersToChord2(maxMeters));
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        return (lat, lon, radiusMeters, result) -> {
+            int nearest = nearest(lat, lon, radiusMeters);
+            return nearest < 0 ? result.clear() : result.set(PointStore.getId(nearest),
+                    GeoMath.haversinMeters(lat, lon, points.getLat(nearest), points.getLon(nearest)));
+        };
+    }
+
+    /**
+     * The k nearest are kept in the {@link Neighbours} heap, so every point is compared one at a time,
+     * whichever the kernel.
+     */
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        return (lat, lon, radiusMeters, result) -> {
+            double latRadians = Math.toRadians(lat);
+            double lonRadians = Math.toRadians(lon);
+            double x = Math.cos(latRadians) * Math.cos(lonRadians);
+            double y = Math.cos(latRadians) * Math.sin(lonRadians);
+            double z = Math.sin(latRadians);
+            double maxChord2 = DistanceKernel.metersToChord2(radiusMeters);
+            result.clear();
+            for (int i = 0; i < xs.length; i++) {
+                double chord2 = DistanceKernel.chord2(xs, ys, zs, i, x, y, z);
+                if (chord2 < maxChord2 && chord2 < result.bound()) {
+                    result.offer(i, chord2);
+                }
+            }
+            int count = result.sort();
+            for (int i = 0; i < count; i++) {
+                int index = result.getId(i);
+                result.set(i, PointStore.getId(index),
+                        GeoMath.haversinMeters(lat, lon, points.getLat(index), points.getLon(index)));
+            }
+            return count;
+        };
+    }
+
+    /**
+     * Every point is compared, by its chord first and by haversine distance only if that is near the radius.
+     *
+     * @param result filled with the ids of the points, or null to only count them
+     */
+    private int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+        if (result != null) {
+            result.clear();
+        }
+        double latRadians = Math.toRadians(lat);
+        double lonRadians = Math.toRadians(lon);
+        double x = Math.cos(latRadians) * Math.cos(lonRadians);
+        double y = Math.cos(latRadians) * Math.sin(lonRadians);
+        double z = Math.sin(latRadians);
+        double maxChord2 = DistanceKernel.metersToChord2(radiusMeters + GeoMath.marginMeters);
+        int count = 0;
+        for (int i = 0; i < xs.length; i++) {
+            if (DistanceKernel.chord2(xs, ys, zs, i, x, y, z) <= maxChord2
+                    && GeoMath.haversinMeters(lat, lon, points.getLat(i), points.getLon(i)) <= radiusMeters) {
+                count++;
+                if (result != null) {
+                    result.add(PointStore.getId(i));
+                }
+            }
+        }
+        return count;
+    }
+
+    private int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+        if (result != null) {
+            result.clear();
+        }
+        int count = 0;
+        for (int i = 0; i < xs.length; i++) {
+            if (GeoMath.inBox(points.getLat(i), points.getLon(i), minLat, maxLat, minLon, maxLon)) {
+                count++;
+                if (result != null) {
+                    result.add(PointStore.getId(i));
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        return new RangeSearcher() {
+            @Override
+            public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+                return BruteForceIndex.this.withinDistance(lat, lon, radiusMeters, result);
+            }
+
+            @Override
+            public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+                return BruteForceIndex.this.withinBox(minLat, maxLat, minLon, maxLon, result);
+            }
+
+            @Override
+            public int countWithinDistance(double lat, double lon, double radiusMeters) {
+                return BruteForceIndex.this.withinDistance(lat, lon, radiusMeters, null);
+            }
+
+            @Override
+            public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+                return BruteForceIndex.this.withinBox(minLat, maxLat, minLon, maxLon, null);
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time to build each engine's index from points already in memory, measured apart from the queries.
+ * <p>
+ * Every build starts from scratch, Lucene writes a new index rather than reusing the one on disk,
+ * and each build ends with one lookup so structures an engine builds lazily on its first search are included.
+ * With {@code parallel} the engines build on every core where they can.
+ */
+@State(Scope.Benchmark)
+public class BuildBenchmark
+        extends AbstractBenchmark {
+
+    @Param({"packed", "grid", "jsi", "lucene", "geotools", "strtree", "jeo", "vptree", "quantized"})
+    IndexType indexType;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    // the radius only affects queries, a single value stops every build being repeated for each radius
+    @Param({"0"})
+    int queryRadiusMetres;
+
+    private PointStore points;
+    private PointIndex index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = getIndexPoints();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public PointIndex build() throws IOException {
+        index = indexType.build(points, parallel, getOutputDirectory(), getIndexName());
+        index.newSearcher().nearest(points.getLat(0), points.getLon(0), 1, new Neighbour());
+        return index;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeIndex() throws IOException {
+        if (index instanceof Closeable) {
+            ((Closeable) index).close();
+        }
+        index = null;
+    }
+
+    /**
+     * Runs the benchmark and prints the build rate of each engine, sequential and parallel.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(BuildBenchmark.class.getSimpleName())
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        System.out.format("%nengine\tpoints\tparallel\tms\tpoints/s%n");
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            int numberOfPoints = Integer.parseInt(params.getParam("numberOfIndexPoints"));
+            double millis = runResult.getPrimaryResult().getScore();
+            System.out.format("%s\t%d\t%s\t%.1f\t%.0f%n",
+                    params.getParam("indexType"),
+                    numberOfPoints,
+                    params.getParam("parallel"),
+                    millis,
+                    millis == 0 ? 0 : numberOfPoints * 1000 / millis);
+        }
+    }
+}
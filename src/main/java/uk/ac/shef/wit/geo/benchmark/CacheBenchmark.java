@@ -0,0 +1,164 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest lookups through a {@link CachedIndex} in front of each engine, against the engine alone.
+ * <p>
+ * The cache is emptied before each operation, so the hits are the repeats within a stream of the query points
+ * rather than the whole query set remembered from the previous operation. Run with the repeating query workload,
+ * see {@link QueryWorkload#repeating}, the hit rate shows what a hot-spot stream gains, with the matching
+ * workload what a cache costs when the queries are all different.
+ */
+@State(Scope.Thread)
+public class CacheBenchmark
+        extends AbstractBenchmark {
+
+    @Param({"packed", "grid", "lucene", "strtree", "vptree"})
+    IndexType indexType;
+
+    @Param({"none", "lru", "tinylfu"})
+    CachePolicy cachePolicy;
+
+    @Param({"64", "1024"})
+    int cacheCapacity;
+
+    @Param({"100"})
+    int cellMeters;
+
+    private PointIndex index;
+    private CachedIndex cachedIndex;
+    private PointIndex.Searcher searcher;
+    private final Neighbour neighbour = new Neighbour();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        PointStore points = getIndexPoints();
+        try {
+            index = indexType.create(points, getOutputDirectory(), getIndexName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (cachePolicy == CachePolicy.none) {
+            searcher = index.newSearcher();
+        } else {
+            cachedIndex = new CachedIndex(index, points, cachePolicy, cacheCapacity, cellMeters);
+            searcher = cachedIndex.newSearcher();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        if (cachedIndex != null) {
+            cachedIndex.clear();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void query() {
+
+        long nearestCount = 0;
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
+            if (searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, neighbour)) {
+                nearestCount++;
+            }
+            setResult(q, neighbour.id, neighbour.distance);
+        }
+
+        candidateCounts.add(nearestCount);
+        nearestCounts.add(nearestCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        super.teardown();
+        if (cachedIndex != null) {
+            long lookups = cachedIndex.getLookups();
+            System.out.format("%s %s: hit rate %.3f (%d/%d), not provably nearest %d, not admitted %d, " +
+                            "cache heap %d bytes%n",
+                    indexType, cachePolicy,
+                    lookups == 0 ? 0 : (double) cachedIndex.getHits() / lookups, cachedIndex.getHits(), lookups,
+                    cachedIndex.getGuarded(), cachedIndex.getRejected(), cachedIndex.getHeapBytes());
+        }
+        if (index instanceof Closeable) {
+            try {
+                ((Closeable) index).close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark on the repeating and matching query workloads and prints the throughput of each cache
+     * relative to the engine alone, at each number of index points.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(CacheBenchmark.class.getSimpleName())
+                .param("distribution", "uniform")
+                .param("queryWorkload", "repeating", "matching")
+                .param("queryRadiusMetres", "10000")
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        Map<String, Double> baselines = new HashMap<>();
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            if (params.getParam("cachePolicy").equals(CachePolicy.none.name())) {
+                baselines.put(getBaselineKey(params), runResult.getPrimaryResult().getScore());
+            }
+        }
+        System.out.format("%nengine\tpoints\tqueries\tpolicy\tcapacity\tops/s\tuplift%n");
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            double score = runResult.getPrimaryResult().getScore();
+            Double baseline = baselines.get(getBaselineKey(params));
+            System.out.format("%s\t%s\t%s\t%s\t%s\t%.1f\t%.2f%n",
+                    params.getParam("indexType"),
+                    params.getParam("numberOfIndexPoints"),
+                    params.getParam("queryWorkload"),
+                    params.getParam("cachePolicy"),
+                    params.getParam("cacheCapacity"),
+                    score,
+                    baseline == null ? Double.NaN : score / baseline);
+        }
+    }
+
+    private static String getBaselineKey(BenchmarkParams params) {
+        return params.getParam("indexType") + "/" + params.getParam("numberOfIndexPoints") + "/" +
+                params.getParam("queryWorkload") + "/" + params.getParam("cacheCapacity");
+    }
+}
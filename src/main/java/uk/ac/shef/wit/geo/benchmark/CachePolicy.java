@@ -0,0 +1,14 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+/**
+ * Eviction from a full {@link CachedIndex}.
+ * <ul>
+ * <li>none - no cache, the engine's own searcher, the baseline</li>
+ * <li>lru - the least recently used cell is evicted for each new one</li>
+ * <li>tinylfu - as lru, but a new cell only replaces the least recently used one if a frequency sketch of the
+ * recent queries has seen it more often, so one-off queries do not push out the hot cells</li>
+ * </ul>
+ */
+public enum CachePolicy {
+    none, lru, tinylfu
+}
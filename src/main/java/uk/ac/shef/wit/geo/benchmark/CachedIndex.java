@@ -0,0 +1,364 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bounded cache of nearest point results in front of any {@link PointIndex}, keyed by the cell of a lat/lon grid
+ * the query falls in.
+ * <p>
+ * A cell holds the nearest point found for the first query in it, which need not be the nearest for another query
+ * in the same cell, near its boundary in particular. So the cached point is only returned when it is provably the
+ * nearest. A miss searches the engine for the two nearest points, and every point but the nearest is at least as far
+ * from the cached query as the second, or the radius searched if there is no second, and so at least that less the
+ * distance between the two queries from the new one. If the cached point is no further than that it is the nearest,
+ * otherwise the engine is searched again and its result replaces the cell's.
+ * <p>
+ * Each searcher has its own cache, used without locks, and k nearest searches are passed straight to the engine.
+ */
+final class CachedIndex
+        implements PointIndex {
+
+    private static final double metersPerDegree = GeoMath.earthRadiusMeters * Math.PI / 180;
+
+    private final PointIndex index;
+    private final PointStore points;
+    private final CachePolicy policy;
+    private final int capacity;
+    private final double cellDegrees;
+    private final List<Cache> caches = new ArrayList<>();
+
+    /**
+     * @param capacity   the number of cells each searcher keeps
+     * @param cellMeters the height of a cell, also its width in degrees of longitude
+     */
+    CachedIndex(PointIndex index, PointStore points, CachePolicy policy, int capacity, double cellMeters) {
+        if (policy == CachePolicy.none) {
+            throw new IllegalArgumentException("No cache for CachePolicy: " + policy);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.index = index;
+        this.points = points;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.cellDegrees = cellMeters / metersPerDegree;
+    }
+
+    private long cellKey(double lat, double lon) {
+        long row = (long) Math.floor((lat + 90) / cellDegrees);
+        long col = (long) Math.floor((lon + 180) / cellDegrees);
+        return row << 32 | col;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+
+    /**
+     * Count-min sketch of how often the recent queries fell in each cell, four 4-bit counters per cell in a single
+     * table, halved after every ten times the capacity of queries so the counts follow the workload as it changes.
+     */
+    private static final class FrequencySketch {
+
+        private static final int maxCount = 15;
+
+        private final byte[] counts;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity * 4) - 1) << 1;
+            counts = new byte[width];
+            mask = width - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        private int index(long key, int row) {
+            return hash(key + row * 0x632BE59BD9B4E019L) & mask;
+        }
+
+        void increment(long key) {
+            for (int row = 0; row < 4; row++) {
+                int i = index(key, row);
+                if (counts[i] < maxCount) {
+                    counts[i]++;
+                }
+            }
+            if (++additions == sampleSize) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(long key) {
+            int frequency = maxCount;
+            for (int row = 0; row < 4; row++) {
+                frequency = Math.min(frequency, counts[index(key, row)]);
+            }
+            return frequency;
+        }
+
+        void clear() {
+            Arrays.fill(counts, (byte) 0);
+            additions = 0;
+        }
+
+        long getHeapBytes() {
+            return counts.length;
+        }
+    }
+
+    /**
+     * Per-searcher cache: the cells in parallel arrays, an open addressing table from cell key to entry,
+     * and the entries in a doubly linked list from most to least recently used.
+     */
+    private final class Cache
+            implements Searcher {
+
+        private final KNearestSearcher searcher;
+        private final Neighbours neighbours = new Neighbours(2);
+        private final FrequencySketch sketch;
+        private final int[] table;
+        private final int mask;
+        private final long[] keys = new long[capacity];
+        private final double[] queryLats = new double[capacity];
+        private final double[] queryLons = new double[capacity];
+        // the id of the nearest point to the cached query, 0 if there was none within the radius,
+        // and the distance within which there is no other point
+        private final int[] ids = new int[capacity];
+        private final double[] bounds = new double[capacity];
+        private final int[] previous = new int[capacity];
+        private final int[] next = new int[capacity];
+        private int head = -1;
+        private int tail = -1;
+        private int size;
+
+        long hits;
+        long misses;
+        // found in the cache but not provably the nearest
+        long guarded;
+        // not admitted by the frequency sketch
+        long rejected;
+
+        Cache(KNearestSearcher searcher) {
+            this.searcher = searcher;
+            sketch = policy == CachePolicy.tinylfu ? new FrequencySketch(capacity) : null;
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2) - 1) << 1;
+            table = new int[tableSize];
+            mask = tableSize - 1;
+            Arrays.fill(table, -1);
+        }
+
+        @Override
+        public boolean nearest(double lat, double lon, double radiusMeters, Neighbour result) {
+            long key = cellKey(lat, lon);
+            if (sketch != null) {
+                sketch.increment(key);
+            }
+            int entry = find(key);
+            if (entry >= 0) {
+                moveToFront(entry);
+                // no other point is closer to this query than this
+                double bound = bounds[entry] - GeoMath.haversinMeters(lat, lon, queryLats[entry], queryLons[entry]);
+                int id = ids[entry];
+                if (id == 0) {
+                    if (radiusMeters <= bound) {
+                        hits++;
+                        return result.clear();
+                    }
+                } else {
+                    double distance = getDistance(lat, lon, id);
+                    if (distance <= bound) {
+                        hits++;
+                        return distance < radiusMeters ? result.set(id, distance) : result.clear();
+                    }
+                }
+                guarded++;
+            } else {
+                misses++;
+            }
+
+            int count = searcher.nearest(lat, lon, radiusMeters, neighbours);
+            if (entry < 0) {
+                entry = admit(key);
+            }
+            if (entry >= 0) {
+                queryLats[entry] = lat;
+                queryLons[entry] = lon;
+                ids[entry] = count == 0 ? 0 : neighbours.getId(0);
+                // measured here rather than taken from the engine, whose distances may not be haversine
+                bounds[entry] = count < 2 ? radiusMeters : getDistance(lat, lon, neighbours.getId(1));
+            }
+            return count == 0 ? result.clear() : result.set(neighbours.getId(0), neighbours.getDistance(0));
+        }
+
+        private double getDistance(double lat, double lon, int id) {
+            int position = PointStore.getIndex(id);
+            return GeoMath.haversinMeters(lat, lon, points.getLat(position), points.getLon(position));
+        }
+
+        /**
+         * @return the entry for a new cell, the least recently used one if the cache is full,
+         * or -1 if the frequency sketch rejects it
+         */
+        private int admit(long key) {
+            int entry;
+            if (size < capacity) {
+                entry = size++;
+            } else {
+                entry = tail;
+                if (sketch != null && sketch.frequency(key) <= sketch.frequency(keys[entry])) {
+                    rejected++;
+                    return -1;
+                }
+                remove(keys[entry]);
+                unlink(entry);
+            }
+            keys[entry] = key;
+            int i = hash(key) & mask;
+            while (table[i] != -1) {
+                i = (i + 1) & mask;
+            }
+            table[i] = entry;
+            linkFront(entry);
+            return entry;
+        }
+
+        private int find(long key) {
+            for (int i = hash(key) & mask; table[i] != -1; i = (i + 1) & mask) {
+                if (keys[table[i]] == key) {
+                    return table[i];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Removes the key from the table, moving back the entries after it so none is left beyond a gap.
+         */
+        private void remove(long key) {
+            int i = hash(key) & mask;
+            while (keys[table[i]] != key) {
+                i = (i + 1) & mask;
+            }
+            table[i] = -1;
+            for (int j = (i + 1) & mask; table[j] != -1; j = (j + 1) & mask) {
+                int home = hash(keys[table[j]]) & mask;
+                // the entry at j can move to the gap at i unless its home slot is cyclically within (i, j]
+                boolean stays = i <= j ? home > i && home <= j : home > i || home <= j;
+                if (!stays) {
+                    table[i] = table[j];
+                    table[j] = -1;
+                    i = j;
+                }
+            }
+        }
+
+        private void linkFront(int entry) {
+            previous[entry] = -1;
+            next[entry] = head;
+            if (head != -1) {
+                previous[head] = entry;
+            }
+            head = entry;
+            if (tail == -1) {
+                tail = entry;
+            }
+        }
+
+        private void unlink(int entry) {
+            if (previous[entry] != -1) {
+                next[previous[entry]] = next[entry];
+            } else {
+                head = next[entry];
+            }
+            if (next[entry] != -1) {
+                previous[next[entry]] = previous[entry];
+            } else {
+                tail = previous[entry];
+            }
+        }
+
+        private void moveToFront(int entry) {
+            if (head != entry) {
+                unlink(entry);
+                linkFront(entry);
+            }
+        }
+
+        void clear() {
+            Arrays.fill(table, -1);
+            head = tail = -1;
+            size = 0;
+            if (sketch != null) {
+                sketch.clear();
+            }
+        }
+
+        long getHeapBytes() {
+            return (long) table.length * Integer.BYTES +
+                    (long) capacity * (Long.BYTES + 3 * Double.BYTES + 3 * Integer.BYTES) +
+                    (sketch == null ? 0 : sketch.getHeapBytes());
+        }
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        Cache cache = new Cache(index.newKNearestSearcher());
+        synchronized (caches) {
+            caches.add(cache);
+        }
+        return cache;
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        return index.newKNearestSearcher();
+    }
+
+    /**
+     * Empties the cache of every searcher, keeping the counts.
+     */
+    void clear() {
+        synchronized (caches) {
+            caches.forEach(Cache::clear);
+        }
+    }
+
+    long getHits() {
+        synchronized (caches) {
+            return caches.stream().mapToLong(cache -> cache.hits).sum();
+        }
+    }
+
+    long getLookups() {
+        synchronized (caches) {
+            return caches.stream().mapToLong(cache -> cache.hits + cache.misses + cache.guarded).sum();
+        }
+    }
+
+    long getGuarded() {
+        synchronized (caches) {
+            return caches.stream().mapToLong(cache -> cache.guarded).sum();
+        }
+    }
+
+    long getRejected() {
+        synchronized (caches) {
+            return caches.stream().mapToLong(cache -> cache.rejected).sum();
+        }
+    }
+
+    long getHeapBytes() {
+        synchronized (caches) {
+            return caches.stream().mapToLong(Cache::getHeapBytes).sum();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams the points of a mapped {@link PointFile} into an engine a chunk at a time, so the points are never all on
+ * the heap before the index is built.
+ * <p>
+ * A reader thread copies fixed size chunks of the columns into arrays and queues them for the {@link Loader}, which
+ * indexes each on the calling thread and hands its arrays back. There are only ever {@code chunks} arrays, so the
+ * reader waits once it is that far ahead of the indexing and the points in flight are bounded by
+ * {@code chunks * chunkPoints}.
+ */
+final class ChunkedIngest {
+
+    static final int defaultChunkPoints = 1 << 16;
+    static final int defaultChunks = 4;
+
+    /**
+     * An engine's index built from the points a chunk at a time, in the order of the file.
+     */
+    interface Loader {
+
+        /**
+         * Indexes the chunk, the arrays are reused once it returns.
+         *
+         * @param offset the position in the file of the first point, whose id is {@link PointStore#getId(int)}
+         */
+        void add(int offset, double[] lats, double[] lons, int length) throws IOException;
+
+        /**
+         * The index of every point added.
+         */
+        PointIndex finish() throws IOException;
+    }
+
+    private static final class Chunk {
+
+        final double[] lats;
+        final double[] lons;
+        int offset;
+        int length;
+
+        Chunk(int points) {
+            lats = new double[points];
+            lons = new double[points];
+        }
+    }
+
+    private ChunkedIngest() {
+    }
+
+    static PointIndex ingest(PointFile points, Loader loader) throws IOException {
+        return ingest(points, loader, defaultChunkPoints, defaultChunks);
+    }
+
+    /**
+     * @param chunkPoints the points in a chunk
+     * @param chunks      the chunks in flight, at least 2 so reading and indexing overlap
+     */
+    static PointIndex ingest(PointFile points, Loader loader, int chunkPoints, int chunks) throws IOException {
+        if (chunkPoints < 1 || chunks < 2) {
+            throw new IllegalArgumentException("Need chunks of at least 1 point and at least 2 chunks: " +
+                    chunkPoints + ", " + chunks);
+        }
+        int size = points.size();
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(chunks);
+        // one more for the empty chunk that ends the file
+        BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(chunks + 1);
+        for (int c = 0; c < chunks; c++) {
+            free.add(new Chunk(chunkPoints));
+        }
+        Chunk end = new Chunk(0);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            try {
+                for (int offset = 0; offset < size; offset += chunkPoints) {
+                    Chunk chunk = free.take();
+                    chunk.offset = offset;
+                    chunk.length = Math.min(chunkPoints, size - offset);
+                    points.getLats(offset, chunk.lats, 0, chunk.length);
+                    points.getLons(offset, chunk.lons, 0, chunk.length);
+                    full.put(chunk);
+                }
+            } catch (InterruptedException e) {
+                // the loader failed, nobody is waiting for the rest
+                return;
+            } catch (RuntimeException | Error e) {
+                failure.set(e);
+            }
+            full.add(end);
+        }, "ingest-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            for (Chunk chunk = full.take(); chunk != end; chunk = full.take()) {
+                loader.add(chunk.offset, chunk.lats, chunk.lons, chunk.length);
+                free.add(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            reader.interrupt();
+        }
+        if (failure.get() != null) {
+            throw new IOException("Reading the points failed", failure.get());
+        }
+        return loader.finish();
+    }
+}
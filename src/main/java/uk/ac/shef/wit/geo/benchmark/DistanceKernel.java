@@ -0,0 +1,89 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+/**
+ * How a block of points, held as struct-of-arrays unit sphere positions, is scanned for the one nearest a query.
+ * <p>
+ * Points are compared by the square of the Euclidean chord between their xyz positions, which has the same order
+ * as the great circle distance and is twice Lucene's haversine sort key, {@code 1 - cos(d / R)}, so it can be
+ * mixed with the sort key bounds of a tree. Both kernels compute it with the same operations in the same order,
+ * so they find the same point.
+ * <ul>
+ * <li>scalar - one point at a time</li>
+ * <li>simd - as many points at a time as the widest vector of doubles of the processor, with the Vector API,
+ * an incubator module in Java 17 that must be added with {@code --add-modules jdk.incubator.vector}</li>
+ * </ul>
+ */
+public enum DistanceKernel {
+    scalar, simd;
+
+    private static final String vectorModule = "jdk.incubator.vector";
+
+    /**
+     * Whether the kernel can be run, the SIMD kernel needs the Vector API module.
+     */
+    public boolean isAvailable() {
+        return this == scalar || ModuleLayer.boot().findModule(vectorModule).isPresent();
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the kernel cannot be run
+     */
+    DistanceKernel check() {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException(
+                    "The " + this + " distance kernel needs --add-modules " + vectorModule);
+        }
+        return this;
+    }
+
+    /**
+     * The SIMD kernel when it can be run, otherwise the scalar one.
+     */
+    static DistanceKernel fastest() {
+        return simd.isAvailable() ? simd : scalar;
+    }
+
+    /**
+     * The square of the chord from (x, y, z) to the point at position i.
+     */
+    static double chord2(double[] xs, double[] ys, double[] zs, int i, double x, double y, double z) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        double dz = zs[i] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * The square of the chord of a great circle distance, infinite beyond half the circumference.
+     */
+    static double metersToChord2(double meters) {
+        double chord = VpTree.metersToChord(meters);
+        return chord * chord;
+    }
+
+    /**
+     * The position in {@code [from, to)} of the point nearest to (x, y, z) whose squared chord is less than
+     * {@code bound}, the first of any equally near.
+     *
+     * @return the position, or -1 if no point is within the bound
+     */
+    int nearest(double[] xs, double[] ys, double[] zs, int from, int to, double x, double y, double z, double bound) {
+        if (this == simd) {
+            return VectorDistanceKernel.nearest(xs, ys, zs, from, to, x, y, z, bound);
+        }
+        return nearestScalar(xs, ys, zs, from, to, x, y, z, bound);
+    }
+
+    static int nearestScalar(double[] xs, double[] ys, double[] zs, int from, int to,
+                             double x, double y, double z, double bound) {
+        int nearest = -1;
+        for (int i = from; i < to; i++) {
+            double chord2 = chord2(xs, ys, zs, i, x, y, z);
+            if (chord2 < bound) {
+                bound = chord2;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+}
@@ -0,0 +1,164 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scalar and SIMD {@link DistanceKernel}, scanning every point in the {@link BruteForceIndex} and scanning the
+ * leaves of a {@link PackedRTree}. The SIMD kernel needs the Vector API, which the forks are started with.
+ */
+@State(Scope.Thread)
+public class DistanceKernelBenchmark
+        extends AbstractBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    @Param({"scalar", "simd"})
+    DistanceKernel kernel;
+
+    private BruteForceIndex bruteForce;
+
+    /**
+     * The tree is only built for the leaf scan, at each leaf size.
+     */
+    @State(Scope.Thread)
+    public static class Tree {
+
+        @Param({"16", "64"})
+        int nodeSize;
+
+        final NodeQueue queue = new NodeQueue();
+        PackedRTree index;
+
+        @Setup(Level.Trial)
+        public void setup(DistanceKernelBenchmark benchmark) {
+            long time = System.currentTimeMillis();
+            index = new PackedRTree(benchmark.getIndexPoints(), nodeSize, true, benchmark.kernel);
+            logger.info("Indexed {} points in {}ms", benchmark.numberOfIndexPoints, System.currentTimeMillis() - time);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        logger.info("Creating or reading {} points", numberOfIndexPoints);
+        bruteForce = new BruteForceIndex(getIndexPoints(), kernel);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void bruteForce() {
+
+        long nearestCount = 0;
+        PointStore points = getIndexPoints();
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
+            double lat = queryPoints.getLat(q);
+            double lon = queryPoints.getLon(q);
+            int nearest = bruteForce.nearest(lat, lon, queryRadiusMetres);
+            if (nearest >= 0) {
+                nearestCount++;
+                double distance = GeoMath.haversinMeters(lat, lon, points.getLat(nearest), points.getLon(nearest));
+                setResult(q, PointStore.getId(nearest), distance);
+            } else {
+                setResult(q, 0, -1.0);
+            }
+        }
+
+        candidateCounts.add(nearestCount);
+        nearestCounts.add(nearestCount);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void leafScan(Tree tree) {
+
+        long nearestCount = 0;
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
+            double lat = queryPoints.getLat(q);
+            double lon = queryPoints.getLon(q);
+            int nearest = tree.index.nearest(lat, lon, queryRadiusMetres, tree.queue);
+            if (nearest >= 0) {
+                nearestCount++;
+                double distance = GeoMath.haversinMeters(lat, lon,
+                        tree.index.getLat(nearest), tree.index.getLon(nearest));
+                setResult(q, tree.index.getId(nearest), distance);
+            } else {
+                setResult(q, 0, -1.0);
+            }
+        }
+
+        candidateCounts.add(nearestCount);
+        nearestCounts.add(nearestCount);
+    }
+
+    @TearDown
+    public void teardown() {
+        super.teardown();
+    }
+
+    /**
+     * Runs both kernels at each radius and prints the throughput of each side by side, with the speed-up of SIMD.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DistanceKernelBenchmark.class.getSimpleName())
+                .param("numberOfIndexPoints", "100000", "1000000")
+                .param("distribution", "uniform")
+                .param("queryWorkload", "matching")
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        // the scalar and SIMD scores of each benchmark, size, radius and leaf size
+        Map<String, double[]> scores = new TreeMap<>();
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            String nodeSize = params.getParam("nodeSize");
+            String key = String.format("%s\t%s\t%s\t%s",
+                    params.getBenchmark().replaceAll(".*\\.", ""),
+                    params.getParam("numberOfIndexPoints"),
+                    params.getParam("queryRadiusMetres"),
+                    nodeSize == null ? "" : nodeSize);
+            double[] score = scores.computeIfAbsent(key, k -> new double[]{Double.NaN, Double.NaN});
+            score[DistanceKernel.valueOf(params.getParam("kernel")).ordinal()] =
+                    runResult.getPrimaryResult().getScore();
+        }
+        System.out.format("%nbenchmark\tpoints\tradius m\tnode size\tscalar ops/s\tsimd ops/s\tspeed-up%n");
+        scores.forEach((key, score) -> System.out.format("%s\t%.2f\t%.2f\t%.2f%n",
+                key, score[0], score[1], score[1] / score[0]));
+    }
+}
@@ -0,0 +1,127 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.apache.lucene.geo.GeoUtils;
+import org.apache.lucene.geo.Rectangle;
+import org.apache.lucene.util.SloppyMath;
+
+/**
+ * Distance functions shared by the first-party engines. All distances are haversine metres,
+ * computed with Lucene's {@link SloppyMath} so the engines agree with each other and with Lucene.
+ */
+final class GeoMath {
+
+    static final double earthRadiusMeters = GeoUtils.EARTH_MEAN_RADIUS_METERS;
+    /**
+     * More than the sloppy distances are ever out by, a margin for bounds that must not exclude a point whose
+     * distance is exactly the radius.
+     */
+    static final double marginMeters = 1;
+
+    private GeoMath() {
+    }
+
+    static double haversinMeters(double lat1, double lon1, double lat2, double lon2) {
+        return SloppyMath.haversinMeters(lat1, lon1, lat2, lon2);
+    }
+
+    /**
+     * Lucene's haversine sort key, {@code 1 - cos(d / R)}, which orders points by distance without the asin and sqrt.
+     */
+    static double sortKey(double lat1, double lon1, double lat2, double lon2) {
+        return SloppyMath.haversinSortKey(lat1, lon1, lat2, lon2);
+    }
+
+    static double sortKeyToMeters(double sortKey) {
+        return SloppyMath.haversinMeters(sortKey);
+    }
+
+    static double metersToSortKey(double meters) {
+        double angle = meters / earthRadiusMeters;
+        return angle >= Math.PI ? Double.POSITIVE_INFINITY : 1 - Math.cos(angle);
+    }
+
+    /**
+     * A lower bound on the sort key from the point to any point within the lat/lon box.
+     * <p>
+     * The sort key is {@code (1 - cos dLat) + cos lat1 cos lat2 (1 - cos dLon)}, each factor is bounded below
+     * by its value at the smallest latitude and longitude differences and the box latitude furthest from the equator.
+     */
+    static double boxSortKey(double lat, double lon,
+                             double minLat, double maxLat, double minLon, double maxLon) {
+        double deltaLat = lat < minLat ? minLat - lat : lat > maxLat ? lat - maxLat : 0;
+        double key = deltaLat == 0 ? 0 : 1 - SloppyMath.cos(Math.toRadians(deltaLat));
+        if (lon < minLon || lon > maxLon) {
+            double west = lon < minLon ? minLon - lon : minLon + 360 - lon;
+            double east = lon > maxLon ? lon - maxLon : lon + 360 - maxLon;
+            double deltaLon = Math.min(180, Math.min(west, east));
+            double cosBox = Math.min(SloppyMath.cos(Math.toRadians(minLat)), SloppyMath.cos(Math.toRadians(maxLat)));
+            key += SloppyMath.cos(Math.toRadians(lat)) * Math.max(0, cosBox) * (1 - SloppyMath.cos(Math.toRadians(deltaLon)));
+        }
+        return key;
+    }
+
+    /**
+     * The minimum distance from the point to any point within the lat/lon box, zero if the point is inside.
+     * <p>
+     * When the point lies outside the longitude range the closest point of the box is on the nearer
+     * bounding meridian, at the foot of the perpendicular great circle clamped to the latitude range.
+     */
+    static double boxDistanceMeters(double lat, double lon,
+                                    double minLat, double maxLat, double minLon, double maxLon) {
+        if (lon >= minLon && lon <= maxLon) {
+            if (lat < minLat) {
+                return SloppyMath.haversinMeters(lat, lon, minLat, lon);
+            } else if (lat > maxLat) {
+                return SloppyMath.haversinMeters(lat, lon, maxLat, lon);
+            }
+            return 0;
+        }
+
+        double edgeLon;
+        double deltaLon;
+        double west = lon < minLon ? minLon - lon : minLon + 360 - lon;
+        double east = lon > maxLon ? lon - maxLon : lon + 360 - maxLon;
+        if (west <= east) {
+            edgeLon = minLon;
+            deltaLon = west;
+        } else {
+            edgeLon = maxLon;
+            deltaLon = east;
+        }
+
+        if (deltaLon >= 90) {
+            // the distance along the meridian has no interior minimum, so the closest point is a corner
+            return Math.min(
+                    SloppyMath.haversinMeters(lat, lon, minLat, edgeLon),
+                    SloppyMath.haversinMeters(lat, lon, maxLat, edgeLon));
+        }
+        double footLat = Math.toDegrees(Math.atan(Math.tan(Math.toRadians(lat)) / Math.cos(Math.toRadians(deltaLon))));
+        double closestLat = Math.max(minLat, Math.min(maxLat, footLat));
+        return SloppyMath.haversinMeters(lat, lon, closestLat, edgeLon);
+    }
+
+    static boolean inBox(double lat, double lon, double minLat, double maxLat, double minLon, double maxLon) {
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    /**
+     * The lat/lon box holding every point within the distance of (lat, lon), plus the margin, from Lucene.
+     * A box that would cross the antimeridian is widened to every longitude, so it never does.
+     */
+    static Rectangle distanceBox(double lat, double lon, double meters) {
+        Rectangle box = Rectangle.fromPointDistance(lat, lon, meters + marginMeters);
+        return box.crossesDateline() ? new Rectangle(box.minLat, box.maxLat, -180, 180) : box;
+    }
+
+    /**
+     * The distance from the centre of the box, its mean latitude and longitude, to its furthest corner, so every
+     * point of a box less than 180 degrees wide is within it of the centre, plus the margin.
+     */
+    static double boxRadiusMeters(double minLat, double maxLat, double minLon, double maxLon) {
+        double lat = (minLat + maxLat) / 2;
+        double lon = (minLon + maxLon) / 2;
+        return marginMeters + Math.max(
+                Math.max(haversinMeters(lat, lon, minLat, minLon), haversinMeters(lat, lon, minLat, maxLon)),
+                Math.max(haversinMeters(lat, lon, maxLat, minLon), haversinMeters(lat, lon, maxLat, maxLon)));
+    }
+}
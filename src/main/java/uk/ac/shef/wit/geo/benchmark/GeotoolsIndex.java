@@ -0,0 +1,311 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.lucene.geo.Rectangle;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.filter.FilterFactory;
+import org.geotools.api.filter.spatial.BBOX;
+import org.geotools.data.collection.SpatialIndexFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.GeodeticCalculator;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Geotools point features in a {@link SpatialIndexFeatureCollection}, queried with a bounding box filter.
+ */
+final class GeotoolsIndex
+        implements PointIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final FilterFactory ff = CommonFactoryFinder.getFilterFactory();
+    private static final GeometryFactory gf = new GeometryFactory();
+    private final SpatialIndexFeatureCollection index;
+
+    GeotoolsIndex(PointStore points) {
+        this(points, false);
+    }
+
+    GeotoolsIndex(PointStore points, boolean parallel) {
+        SimpleFeatureType pointFeature = createPointFeatureType();
+        index = new SpatialIndexFeatureCollection(pointFeature);
+
+        if (parallel) {
+            // the features are independent, so they can be built on every core
+            SimpleFeature[] built = new SimpleFeature[points.size()];
+            IntStream.range(0, points.size()).parallel()
+                    .forEach(i -> built[i] = createPointFeature(pointFeature, points, i));
+            List<SimpleFeature> features = new ArrayList<>(points.size());
+            for (SimpleFeature feature : built) {
+                if (feature != null) {
+                    features.add(feature);
+                }
+            }
+            logger.info("Indexing {} features...", points.size());
+            index.addAll(features);
+        } else {
+            // added a chunk at a time, so there is never a list of every feature beside the index
+            List<SimpleFeature> chunk = new ArrayList<>(ChunkedIngest.defaultChunkPoints);
+            try (ProgressBar pg = new ProgressBar("Points", points.size())) {
+                for (int i = 0; i < points.size(); i++) {
+                    SimpleFeature feature = createPointFeature(pointFeature, points, i);
+                    if (feature != null) {
+                        chunk.add(feature);
+                    }
+                    if (chunk.size() == ChunkedIngest.defaultChunkPoints) {
+                        index.addAll(chunk);
+                        chunk.clear();
+                    }
+                    pg.step();
+                }
+            }
+            index.addAll(chunk);
+        }
+    }
+
+    GeotoolsIndex(SpatialIndexFeatureCollection index) {
+        this.index = index;
+    }
+
+    SpatialIndexFeatureCollection getCollection() {
+        return index;
+    }
+
+    static SimpleFeatureType createPointFeatureType() {
+        SimpleFeatureTypeBuilder pointTypeBuilder = new SimpleFeatureTypeBuilder();
+        pointTypeBuilder.setName("Point");
+        pointTypeBuilder.setNamespaceURI("Point");
+        pointTypeBuilder.setCRS(DefaultGeographicCRS.WGS84);
+        pointTypeBuilder.add("pointGeom", Point.class);
+        pointTypeBuilder.setDefaultGeometry("pointGeom");
+        pointTypeBuilder.add("id", Integer.class);
+        return pointTypeBuilder.buildFeatureType();
+    }
+
+    static SimpleFeature createPointFeature(SimpleFeatureType pointFeature, PointStore points, int i) {
+        return createPointFeature(pointFeature, PointStore.getId(i), points.getLat(i), points.getLon(i));
+    }
+
+    static SimpleFeature createPointFeature(SimpleFeatureType pointFeature, int id, double lat, double lon) {
+        Point point = gf.createPoint(new Coordinate(lon, lat));
+        SimpleFeature feature = createSimpleFeature(pointFeature, point);
+        if (feature == null) {
+            logger.error("Not a valid feature");
+            return null;
+        }
+        feature.setAttribute("id", id);
+        return feature;
+    }
+
+    /**
+     * The features of each chunk are added to the collection together, the list of them reused for the next.
+     */
+    static ChunkedIngest.Loader loader() {
+        SimpleFeatureType pointFeature = createPointFeatureType();
+        SpatialIndexFeatureCollection index = new SpatialIndexFeatureCollection(pointFeature);
+        List<SimpleFeature> chunk = new ArrayList<>();
+        return new ChunkedIngest.Loader() {
+            @Override
+            public void add(int offset, double[] lats, double[] lons, int length) {
+                chunk.clear();
+                for (int i = 0; i < length; i++) {
+                    SimpleFeature feature = createPointFeature(pointFeature, PointStore.getId(offset + i),
+                            lats[i], lons[i]);
+                    if (feature != null) {
+                        chunk.add(feature);
+                    }
+                }
+                index.addAll(chunk);
+            }
+
+            @Override
+            public PointIndex finish() {
+                return new GeotoolsIndex(index);
+            }
+        };
+    }
+
+    public static SimpleFeature createSimpleFeature(SimpleFeatureType schema, Geometry geometry) {
+        if (geometry != null && geometry.isValid()) {
+            SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(schema);
+            featureBuilder.add(geometry);
+            return featureBuilder.buildFeature(null);
+        }
+        return null;
+    }
+
+    static double toDegrees(double meters) {
+        // 1 degree is approximately 100km
+        return meters / 100000;
+    }
+
+    /**
+     * Per-thread query state. The search envelope and the geodetic calculator, which {@code JTS.orthodromicDistance}
+     * would create for every candidate, are reused between queries; Geotools still creates a filter and
+     * sub-collection for each query.
+     */
+    final class Query {
+
+        private final ReferencedEnvelope search =
+                new ReferencedEnvelope(0, 0, 0, 0, index.getSchema().getCoordinateReferenceSystem());
+        private final GeodeticCalculator calculator = new GeodeticCalculator(DefaultGeographicCRS.WGS84);
+
+        /**
+         * The features within the box of {@code distance} degrees around (lat, lon), which becomes the start point
+         * for {@link #getDistance(SimpleFeature)}.
+         */
+        SimpleFeatureCollection getCandidateFeatures(double lat, double lon, double distance) {
+            calculator.setStartingGeographicPoint(lon, lat);
+            return getFeatures(lat - distance, lat + distance, lon - distance, lon + distance);
+        }
+
+        /**
+         * The features within the box holding every point within {@code meters} of (lat, lon),
+         * see {@link GeoMath#distanceBox(double, double, double)}.
+         */
+        SimpleFeatureCollection getFeaturesWithin(double lat, double lon, double meters) {
+            Rectangle box = GeoMath.distanceBox(lat, lon, meters);
+            return getFeatures(box.minLat, box.maxLat, box.minLon, box.maxLon);
+        }
+
+        /**
+         * The features within the box, its edges included.
+         */
+        SimpleFeatureCollection getFeatures(double minLat, double maxLat, double minLon, double maxLon) {
+            search.init(minLon, maxLon, minLat, maxLat);
+            SimpleFeatureType schema = index.getSchema();
+            BBOX bbox = ff.bbox(ff.property(schema.getGeometryDescriptor().getName()), search);
+            return index.subCollection(bbox);
+        }
+
+        /**
+         * The orthodromic distance in metres from the query point to the feature, on the ellipsoid,
+         * as the original {@link GeotoolsBenchmark} measures it.
+         */
+        double getDistance(SimpleFeature feature) {
+            Point point = (Point) feature.getDefaultGeometry();
+            calculator.setDestinationGeographicPoint(point.getX(), point.getY());
+            return calculator.getOrthodromicDistance();
+        }
+    }
+
+    private static double haversinMeters(double lat, double lon, SimpleFeature feature) {
+        Point point = (Point) feature.getDefaultGeometry();
+        return GeoMath.haversinMeters(lat, lon, point.getY(), point.getX());
+    }
+
+    /**
+     * Bounded top-k selection over the candidates in the box around the radius, each is offered to the k nearest
+     * so far by haversine distance, as the other engines rank them.
+     */
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        Query query = new Query();
+        return (lat, lon, radiusMeters, result) -> {
+            result.clear();
+            try (SimpleFeatureIterator itr = query.getFeaturesWithin(lat, lon, radiusMeters).features()) {
+                while (itr.hasNext()) {
+                    SimpleFeature feature = itr.next();
+                    double distance = haversinMeters(lat, lon, feature);
+                    if (distance < radiusMeters && distance < result.bound()) {
+                        result.offer((int) feature.getAttribute("id"), distance);
+                    }
+                }
+            }
+            return result.sort();
+        };
+    }
+
+    /**
+     * The nearest of the candidates in the box around the radius by haversine distance, so it agrees with the
+     * first of the k nearest.
+     */
+    @Override
+    public Searcher newSearcher() {
+        Query query = new Query();
+        return (lat, lon, radiusMeters, result) -> {
+            SimpleFeature nearestFeature = null;
+            double nearestDistance = radiusMeters;
+            try (SimpleFeatureIterator itr = query.getFeaturesWithin(lat, lon, radiusMeters).features()) {
+                while (itr.hasNext()) {
+                    SimpleFeature feature = itr.next();
+                    double distance = haversinMeters(lat, lon, feature);
+                    if (nearestDistance > distance) {
+                        nearestDistance = distance;
+                        nearestFeature = feature;
+                    }
+                }
+            }
+            return nearestFeature == null ? result.clear() :
+                    result.set((int) nearestFeature.getAttribute("id"), nearestDistance);
+        };
+    }
+
+    /**
+     * The box query is a sub-collection of the features in the box, counted by the collection. The circle of a
+     * distance query is searched as the box around it, the features in it tested by haversine distance as in the
+     * nearest searches, so the points found agree with the other engines.
+     */
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        Query query = new Query();
+        return new RangeSearcher() {
+            @Override
+            public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+                if (result != null) {
+                    result.clear();
+                }
+                int count = 0;
+                try (SimpleFeatureIterator itr = query.getFeaturesWithin(lat, lon, radiusMeters).features()) {
+                    while (itr.hasNext()) {
+                        SimpleFeature feature = itr.next();
+                        if (haversinMeters(lat, lon, feature) <= radiusMeters) {
+                            count++;
+                            if (result != null) {
+                                result.add((int) feature.getAttribute("id"));
+                            }
+                        }
+                    }
+                }
+                return count;
+            }
+
+            @Override
+            public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+                result.clear();
+                try (SimpleFeatureIterator itr = query.getFeatures(minLat, maxLat, minLon, maxLon).features()) {
+                    while (itr.hasNext()) {
+                        result.add((int) itr.next().getAttribute("id"));
+                    }
+                }
+                return result.size();
+            }
+
+            @Override
+            public int countWithinDistance(double lat, double lon, double radiusMeters) {
+                return withinDistance(lat, lon, radiusMeters, null);
+            }
+
+            @Override
+            public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+                return query.getFeatures(minLat, maxLat, minLon, maxLon).size();
+            }
+        };
+    }
+}
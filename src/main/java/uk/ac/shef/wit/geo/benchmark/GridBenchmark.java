@@ -0,0 +1,76 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+public class GridBenchmark
+        extends AbstractBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private GridIndex index;
+
+    @Setup
+    public void setup() {
+        logger.info("Creating or reading {} points", numberOfIndexPoints);
+        PointStore points = getIndexPoints();
+        long heapBefore = getUsedHeapBytes();
+        logger.info("Indexing points");
+        long time = System.currentTimeMillis();
+        try {
+            index = (GridIndex) IndexType.grid.create(points, getOutputDirectory(), getIndexName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        logger.info("Indexed or loaded {} points into {}x{} cells in {}ms",
+                numberOfIndexPoints, index.getRows(), index.getCols(), System.currentTimeMillis() - time);
+        logIndexHeapUsage(heapBefore, points);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public void query() {
+
+        long nearestCount = 0;
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
+            double lat = queryPoints.getLat(q);
+            double lon = queryPoints.getLon(q);
+            int nearest = index.nearest(lat, lon, queryRadiusMetres);
+            if (nearest >= 0) {
+                nearestCount++;
+                double distance = GeoMath.haversinMeters(lat, lon, index.getLat(nearest), index.getLon(nearest));
+                setResult(q, index.getId(nearest), distance);
+            } else {
+                setResult(q, 0, -1.0);
+            }
+        }
+
+        candidateCounts.add(nearestCount);
+        nearestCounts.add(nearestCount);
+    }
+
+    @TearDown
+    public void teardown() {
+        super.teardown();
+    }
+}
@@ -0,0 +1,401 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.apache.lucene.geo.Rectangle;
+
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+/**
+ * Uniform lat/lon grid over the bounds of the points, stored in compressed sparse row form:
+ * the points are reordered cell by cell and {@code cellStarts[c]} is the position of the first point of cell c.
+ * <p>
+ * Nearest queries scan rings of cells outward from the query cell and stop once the distance to the
+ * unscanned region exceeds the nearest point found, or the query radius.
+ */
+final class GridIndex
+        implements PointIndex {
+
+    static final int defaultPointsPerCell = 2;
+
+    private final int size;
+    private final int rows, cols;
+    private final double minLat, maxLat, minLon, maxLon;
+    private final double cellLat, cellLon;
+    private final int[] cellStarts;
+    // points in cell order
+    private final double[] lats;
+    private final double[] lons;
+    private final int[] ids;
+
+    GridIndex(PointStore points) {
+        this(points, defaultPointsPerCell, true);
+    }
+
+    GridIndex(PointStore points, int pointsPerCell, boolean parallel) {
+        this.size = points.size();
+
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minLat = Math.min(minLat, points.getLat(i));
+            maxLat = Math.max(maxLat, points.getLat(i));
+            minLon = Math.min(minLon, points.getLon(i));
+            maxLon = Math.max(maxLon, points.getLon(i));
+        }
+        if (size == 0) {
+            minLat = maxLat = minLon = maxLon = 0;
+        }
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+
+        // roughly square cells, allowing for the convergence of the meridians
+        double height = Math.max(maxLat - minLat, 1e-9);
+        double width = Math.max((maxLon - minLon) * Math.cos(Math.toRadians((minLat + maxLat) / 2)), 1e-9);
+        long cells = Math.max(1, size / Math.max(1, pointsPerCell));
+        rows = (int) Math.max(1, Math.min(1 << 15, Math.round(Math.sqrt(cells * height / width))));
+        cols = (int) Math.max(1, Math.min(1 << 15, cells / rows));
+        // a tiny margin so the maximum values fall inside the last cell
+        cellLat = (maxLat - minLat) / rows * (1 + 1e-12) + Double.MIN_NORMAL;
+        cellLon = (maxLon - minLon) / cols * (1 + 1e-12) + Double.MIN_NORMAL;
+
+        // counting sort of the points into their cells
+        int[] cellOf = new int[size];
+        IntStream range = IntStream.range(0, size);
+        (parallel ? range.parallel() : range).forEach(i ->
+                cellOf[i] = row(points.getLat(i)) * cols + col(points.getLon(i)));
+        cellStarts = new int[rows * cols + 1];
+        for (int i = 0; i < size; i++) {
+            cellStarts[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < rows * cols; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        int[] next = new int[rows * cols];
+        System.arraycopy(cellStarts, 0, next, 0, rows * cols);
+        lats = new double[size];
+        lons = new double[size];
+        ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            int position = next[cellOf[i]]++;
+            lats[position] = points.getLat(i);
+            lons[position] = points.getLon(i);
+            ids[position] = PointStore.getId(i);
+        }
+    }
+
+    private GridIndex(int size, int rows, int cols, double minLat, double maxLat, double minLon, double maxLon,
+                      double cellLat, double cellLon, int[] cellStarts, double[] lats, double[] lons, int[] ids) {
+        this.size = size;
+        this.rows = rows;
+        this.cols = cols;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        this.cellLat = cellLat;
+        this.cellLon = cellLon;
+        this.cellStarts = cellStarts;
+        this.lats = lats;
+        this.lons = lons;
+        this.ids = ids;
+    }
+
+    void save(IndexSnapshot.Writer writer) throws IOException {
+        writer.putInt(size)
+                .putInt(rows)
+                .putInt(cols)
+                .putDouble(minLat)
+                .putDouble(maxLat)
+                .putDouble(minLon)
+                .putDouble(maxLon)
+                .putDouble(cellLat)
+                .putDouble(cellLon)
+                .putInts(cellStarts)
+                .putDoubles(lats)
+                .putDoubles(lons)
+                .putInts(ids);
+    }
+
+    static GridIndex load(IndexSnapshot.Reader reader) throws IOException {
+        return new GridIndex(reader.getInt(), reader.getInt(), reader.getInt(),
+                reader.getDouble(), reader.getDouble(), reader.getDouble(), reader.getDouble(),
+                reader.getDouble(), reader.getDouble(),
+                reader.getInts(), reader.getDoubles(), reader.getDoubles(), reader.getInts());
+    }
+
+    private int row(double lat) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((lat - minLat) / cellLat)));
+    }
+
+    private int col(double lon) {
+        return Math.max(0, Math.min(cols - 1, (int) Math.floor((lon - minLon) / cellLon)));
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    int getCols() {
+        return cols;
+    }
+
+    int getId(int position) {
+        return ids[position];
+    }
+
+    double getLat(int position) {
+        return lats[position];
+    }
+
+    double getLon(int position) {
+        return lons[position];
+    }
+
+    long getHeapBytes() {
+        return (long) size * (2 * Double.BYTES + Integer.BYTES) + (long) cellStarts.length * Integer.BYTES;
+    }
+
+    /**
+     * Ring-expanding search for the point nearest to (lat, lon) that is closer than {@code maxMeters}.
+     *
+     * @return the position of the nearest point, see {@link #getId(int)}, or -1 if there is none
+     */
+    int nearest(double lat, double lon, double maxMeters) {
+        int row = row(lat);
+        int col = col(lon);
+        int maxRing = Math.max(Math.max(row, rows - 1 - row), Math.max(col, cols - 1 - col));
+        int nearest = -1;
+        double nearestDistance = maxMeters;
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            int top = row + ring;
+            int bottom = row - ring;
+            int left = col - ring;
+            int right = col + ring;
+            for (int r = Math.max(0, bottom); r <= Math.min(rows - 1, top); r++) {
+                boolean edgeRow = r == bottom || r == top;
+                // interior rows of the ring only have the two end cells
+                int step = edgeRow ? 1 : right - left;
+                for (int c = left; c <= right; c += Math.max(1, step)) {
+                    if (c < 0 || c >= cols) {
+                        continue;
+                    }
+                    int cell = r * cols + c;
+                    for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                        double distance = GeoMath.haversinMeters(lat, lon, lats[i], lons[i]);
+                        if (distance < nearestDistance) {
+                            nearestDistance = distance;
+                            nearest = i;
+                        }
+                    }
+                }
+            }
+
+            if (unscannedDistance(lat, lon, bottom, top, left, right) >= nearestDistance) {
+                break;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Ring-expanding search for the k points nearest to (lat, lon) that are closer than {@code maxMeters},
+     * stopping once the unscanned cells are further than the k-th nearest found so far.
+     *
+     * @param result filled with the ids and distances of the points, not yet sorted
+     */
+    void nearest(double lat, double lon, double maxMeters, Neighbours result) {
+        result.clear();
+        int row = row(lat);
+        int col = col(lon);
+        int maxRing = Math.max(Math.max(row, rows - 1 - row), Math.max(col, cols - 1 - col));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            int top = row + ring;
+            int bottom = row - ring;
+            int left = col - ring;
+            int right = col + ring;
+            for (int r = Math.max(0, bottom); r <= Math.min(rows - 1, top); r++) {
+                boolean edgeRow = r == bottom || r == top;
+                int step = edgeRow ? 1 : right - left;
+                for (int c = left; c <= right; c += Math.max(1, step)) {
+                    if (c < 0 || c >= cols) {
+                        continue;
+                    }
+                    int cell = r * cols + c;
+                    for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                        double distance = GeoMath.haversinMeters(lat, lon, lats[i], lons[i]);
+                        if (distance < maxMeters && distance < result.bound()) {
+                            result.offer(ids[i], distance);
+                        }
+                    }
+                }
+            }
+            if (unscannedDistance(lat, lon, bottom, top, left, right) >= Math.min(maxMeters, result.bound())) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * The distance to the closest cell not yet scanned, the strips of the grid beyond each side of the ring.
+     */
+    private double unscannedDistance(double lat, double lon, int bottom, int top, int left, int right) {
+        double bound = Double.POSITIVE_INFINITY;
+        if (bottom > 0) {
+            bound = Math.min(bound, GeoMath.boxDistanceMeters(lat, lon,
+                    minLat, minLat + bottom * cellLat, minLon, maxLon));
+        }
+        if (top < rows - 1) {
+            bound = Math.min(bound, GeoMath.boxDistanceMeters(lat, lon,
+                    minLat + (top + 1) * cellLat, maxLat, minLon, maxLon));
+        }
+        if (left > 0) {
+            bound = Math.min(bound, GeoMath.boxDistanceMeters(lat, lon,
+                    minLat, maxLat, minLon, minLon + left * cellLon));
+        }
+        if (right < cols - 1) {
+            bound = Math.min(bound, GeoMath.boxDistanceMeters(lat, lon,
+                    minLat, maxLat, minLon + (right + 1) * cellLon, maxLon));
+        }
+        return bound;
+    }
+
+    /**
+     * Finds the points within {@code radiusMeters} of (lat, lon), scanning the cells under the box around the
+     * circle that are near enough to hold one.
+     *
+     * @param result filled with the ids of the points, or null to only count them
+     * @return the number of points found
+     */
+    int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+        if (result != null) {
+            result.clear();
+        }
+        Rectangle box = GeoMath.distanceBox(lat, lon, radiusMeters);
+        int count = 0;
+        for (int r = row(box.minLat), top = row(box.maxLat); r <= top; r++) {
+            for (int c = col(box.minLon), right = col(box.maxLon); c <= right; c++) {
+                if (GeoMath.boxDistanceMeters(lat, lon, minLat + r * cellLat, minLat + (r + 1) * cellLat,
+                        minLon + c * cellLon, minLon + (c + 1) * cellLon) > radiusMeters + GeoMath.marginMeters) {
+                    continue;
+                }
+                int cell = r * cols + c;
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                    if (GeoMath.haversinMeters(lat, lon, lats[i], lons[i]) <= radiusMeters) {
+                        count++;
+                        if (result != null) {
+                            result.add(ids[i]);
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the points inside the box. Rows and columns only increase with latitude and longitude, so the cells
+     * strictly between the rows and columns of the edges of the box are inside it: each row of them is a run of
+     * points found without looking at them and only the cells on the edges are scanned.
+     *
+     * @param result filled with the ids of the points, or null to only count them
+     * @return the number of points found
+     */
+    int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+        if (result != null) {
+            result.clear();
+        }
+        if (size == 0) {
+            return 0;
+        }
+        int bottom = row(minLat);
+        int top = row(maxLat);
+        int left = col(minLon);
+        int right = col(maxLon);
+        int count = 0;
+        for (int r = bottom; r <= top; r++) {
+            int row = r * cols;
+            if (r == bottom || r == top || right - left < 2) {
+                count += scan(cellStarts[row + left], cellStarts[row + right + 1],
+                        minLat, maxLat, minLon, maxLon, result);
+            } else {
+                count += scan(cellStarts[row + left], cellStarts[row + left + 1],
+                        minLat, maxLat, minLon, maxLon, result);
+                int from = cellStarts[row + left + 1];
+                int to = cellStarts[row + right];
+                if (result != null) {
+                    for (int i = from; i < to; i++) {
+                        result.add(ids[i]);
+                    }
+                }
+                count += to - from;
+                count += scan(cellStarts[row + right], cellStarts[row + right + 1],
+                        minLat, maxLat, minLon, maxLon, result);
+            }
+        }
+        return count;
+    }
+
+    private int scan(int from, int to, double minLat, double maxLat, double minLon, double maxLon,
+                     PointIds result) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (GeoMath.inBox(lats[i], lons[i], minLat, maxLat, minLon, maxLon)) {
+                count++;
+                if (result != null) {
+                    result.add(ids[i]);
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        return (lat, lon, radiusMeters, result) -> {
+            nearest(lat, lon, radiusMeters, result);
+            return result.sort();
+        };
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        return (lat, lon, radiusMeters, result) -> {
+            int nearest = nearest(lat, lon, radiusMeters);
+            return nearest < 0 ? result.clear() :
+                    result.set(ids[nearest], GeoMath.haversinMeters(lat, lon, lats[nearest], lons[nearest]));
+        };
+    }
+
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        return new RangeSearcher() {
+            @Override
+            public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+                return GridIndex.this.withinDistance(lat, lon, radiusMeters, result);
+            }
+
+            @Override
+            public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+                return GridIndex.this.withinBox(minLat, maxLat, minLon, maxLon, result);
+            }
+
+            @Override
+            public int countWithinDistance(double lat, double lon, double radiusMeters) {
+                return GridIndex.this.withinDistance(lat, lon, radiusMeters, null);
+            }
+
+            @Override
+            public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+                return GridIndex.this.withinBox(minLat, maxLat, minLon, maxLon, null);
+            }
+        };
+    }
+}
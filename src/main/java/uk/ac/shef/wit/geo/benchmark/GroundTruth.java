@@ -0,0 +1,112 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The exact nearest index point to each query point, by exhaustive haversine search,
+ * the reference the engines are validated against.
+ * <p>
+ * The index points are sorted by latitude and each search scans outward from the query latitude,
+ * stopping only when the latitude difference alone is further than the nearest point found,
+ * so no point that could be nearer is skipped. The queries are searched in parallel.
+ */
+final class GroundTruth {
+
+    // more than the float rounding of the sort order and the error of the sloppy haversine
+    private static final double marginDegrees = 1e-3;
+
+    private final int[] ids;
+    private final double[] distances;
+
+    private GroundTruth(int[] ids, double[] distances) {
+        this.ids = ids;
+        this.distances = distances;
+    }
+
+    static GroundTruth compute(PointStore points, PointStore queryPoints) {
+        int size = points.size();
+
+        // sort on (latitude as float << 32 | index), float bits flipped so negative latitudes sort correctly
+        long[] keys = new long[size];
+        IntStream.range(0, size).parallel().forEach(i -> {
+            int bits = Float.floatToIntBits((float) points.getLat(i));
+            bits ^= (bits >> 31) & Integer.MAX_VALUE;
+            keys[i] = (long) bits << 32 | i;
+        });
+        Arrays.parallelSort(keys);
+        double[] lats = new double[size];
+        double[] lons = new double[size];
+        int[] pointIds = new int[size];
+        IntStream.range(0, size).parallel().forEach(i -> {
+            int index = (int) keys[i];
+            lats[i] = points.getLat(index);
+            lons[i] = points.getLon(index);
+            pointIds[i] = PointStore.getId(index);
+        });
+
+        int[] ids = new int[queryPoints.size()];
+        double[] distances = new double[queryPoints.size()];
+        IntStream.range(0, queryPoints.size()).parallel().forEach(q -> {
+            double lat = queryPoints.getLat(q);
+            double lon = queryPoints.getLon(q);
+            int nearest = -1;
+            double nearestDistance = Double.POSITIVE_INFINITY;
+            double nearestDegrees = Double.POSITIVE_INFINITY;
+
+            int start = lowerBound(lats, lat);
+            for (int i = start; i < size && lats[i] - lat - marginDegrees <= nearestDegrees; i++) {
+                double distance = GeoMath.haversinMeters(lat, lon, lats[i], lons[i]);
+                if (distance < nearestDistance) {
+                    nearestDistance = distance;
+                    nearestDegrees = Math.toDegrees(distance / GeoMath.earthRadiusMeters);
+                    nearest = i;
+                }
+            }
+            for (int i = start - 1; i >= 0 && lat - lats[i] - marginDegrees <= nearestDegrees; i--) {
+                double distance = GeoMath.haversinMeters(lat, lon, lats[i], lons[i]);
+                if (distance < nearestDistance) {
+                    nearestDistance = distance;
+                    nearestDegrees = Math.toDegrees(distance / GeoMath.earthRadiusMeters);
+                    nearest = i;
+                }
+            }
+            ids[q] = nearest < 0 ? 0 : pointIds[nearest];
+            distances[q] = nearest < 0 ? -1 : nearestDistance;
+        });
+        return new GroundTruth(ids, distances);
+    }
+
+    /**
+     * The first position with a latitude not less than {@code lat}, where the array is sorted to float precision,
+     * only used as the starting point of the scans so it need not be exact.
+     */
+    private static int lowerBound(double[] lats, double lat) {
+        int low = 0;
+        int high = lats.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lats[mid] < lat) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * The id of the nearest point to the query within the radius, or 0 if there is none.
+     */
+    int getId(int query, double radiusMeters) {
+        return distances[query] >= 0 && distances[query] < radiusMeters ? ids[query] : 0;
+    }
+
+    double getDistance(int query) {
+        return distances[query];
+    }
+}
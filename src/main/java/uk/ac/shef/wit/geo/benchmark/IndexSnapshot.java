@@ -0,0 +1,225 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of a built in-memory index, so later runs load the index instead of building it again.
+ * <p>
+ * Layout (little-endian): a fixed size header holding the magic number, format version, point count and
+ * {@link PointStore#fingerprint()} of the points the index was built from, followed by the engine's own sequence
+ * of values. Arrays are preceded by their length and copied through memory mappings, an engine without a flat
+ * layout can instead stream a serialized object, which must be the last value.
+ */
+final class IndexSnapshot {
+
+    static final String extension = ".bin";
+
+    private static final int magic = 0x47534E50; // "GSNP"
+    private static final int version = 1;
+    private static final int headerBytes = 32;
+
+    private IndexSnapshot() {
+    }
+
+    static Path getPath(File outputDirectory, IndexType indexType, String suffix) {
+        return Paths.get(outputDirectory.getAbsolutePath(), "snapshot-" + indexType + "-" + suffix + extension);
+    }
+
+    /**
+     * Writes to a temporary file which is moved into place by {@link #commit()},
+     * so an interrupted run never leaves a partial snapshot behind.
+     */
+    static final class Writer
+            implements Closeable {
+
+        private final Path path;
+        private final Path tmp;
+        private final FileChannel channel;
+        private final ByteBuffer scalar = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+        private boolean committed;
+
+        Writer(Path path, PointStore points) throws IOException {
+            this.path = path;
+            this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(magic)
+                    .putInt(version)
+                    .putLong(points.size())
+                    .putLong(points.fingerprint());
+            header.clear();
+            write(header);
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        Writer putInt(int value) throws IOException {
+            scalar.clear();
+            scalar.putInt(value).flip();
+            write(scalar);
+            return this;
+        }
+
+        Writer putDouble(double value) throws IOException {
+            scalar.clear();
+            scalar.putDouble(value).flip();
+            write(scalar);
+            return this;
+        }
+
+        Writer putInts(int[] values) throws IOException {
+            putInt(values.length);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) values.length * Integer.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(values);
+            position += (long) values.length * Integer.BYTES;
+            return this;
+        }
+
+        Writer putDoubles(double[] values) throws IOException {
+            putInt(values.length);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) values.length * Double.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(values);
+            position += (long) values.length * Double.BYTES;
+            return this;
+        }
+
+        Writer putObject(Object value) throws IOException {
+            channel.position(position);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeObject(value);
+            out.flush();
+            position = channel.position();
+            return this;
+        }
+
+        void commit() throws IOException {
+            channel.force(false);
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    static final class Reader
+            implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer scalar = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        /**
+         * @throws IOException if the file is not a snapshot or was built from different points
+         */
+        Reader(Path path, PointStore points) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = read(headerBytes);
+                if (header.getInt() != magic) {
+                    throw new IOException("Not a snapshot: " + path);
+                }
+                int fileVersion = header.getInt();
+                if (fileVersion != version) {
+                    throw new IOException("Unsupported snapshot version " + fileVersion + ": " + path);
+                }
+                long count = header.getLong();
+                long fingerprint = header.getLong();
+                if (count != points.size() || fingerprint != points.fingerprint()) {
+                    throw new IOException("Snapshot was built from different points: " + path);
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private ByteBuffer read(int bytes) throws IOException {
+            ByteBuffer buffer = bytes <= scalar.capacity() ? scalar.clear().limit(bytes) :
+                    ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Truncated snapshot");
+                }
+                position += read;
+            }
+            return buffer.flip();
+        }
+
+        int getInt() throws IOException {
+            return read(Integer.BYTES).getInt();
+        }
+
+        double getDouble() throws IOException {
+            return read(Double.BYTES).getDouble();
+        }
+
+        int[] getInts() throws IOException {
+            int[] values = new int[getInt()];
+            long bytes = (long) values.length * Integer.BYTES;
+            if (position + bytes > channel.size()) {
+                throw new IOException("Truncated snapshot");
+            }
+            channel.map(FileChannel.MapMode.READ_ONLY, position, bytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values);
+            position += bytes;
+            return values;
+        }
+
+        double[] getDoubles() throws IOException {
+            double[] values = new double[getInt()];
+            long bytes = (long) values.length * Double.BYTES;
+            if (position + bytes > channel.size()) {
+                throw new IOException("Truncated snapshot");
+            }
+            channel.map(FileChannel.MapMode.READ_ONLY, position, bytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values);
+            position += bytes;
+            return values;
+        }
+
+        Object getObject() throws IOException {
+            channel.position(position);
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            try {
+                return in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The engines that can be built as a {@link PointIndex}, for benchmarks run against every engine.
+ */
+public enum IndexType {
+    geotools, jeo, jsi, lucene, packed, grid, strtree, vptree, quantized, bruteforce;
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * Whether the engine can be saved as an {@link IndexSnapshot}, Lucene reuses its own index directory instead.
+     */
+    public boolean hasSnapshot() {
+        return this == packed || this == grid || this == jsi || this == vptree;
+    }
+
+    /**
+     * Whether the engine can be built from the points a chunk at a time, see {@link #newLoader}.
+     */
+    public boolean hasLoader() {
+        return this == geotools || this == jeo || this == lucene;
+    }
+
+    /**
+     * Builds a new index from the chunks of a {@link ChunkedIngest}, for the engines that take their points one
+     * at a time or in batches. Lucene writes a new index, apart from the ones the other benchmarks open.
+     */
+    ChunkedIngest.Loader newLoader(File outputDirectory, String suffix) throws IOException {
+        switch (this) {
+            case geotools:
+                return GeotoolsIndex.loader();
+            case jeo:
+                return JeoIndex.loader();
+            case lucene:
+                return LuceneIndex.loader(LuceneType.niofs.getDirectory(outputDirectory, "ingest-" + suffix));
+            default:
+                throw new UnsupportedOperationException("No loader for IndexType: " + this);
+        }
+    }
+
+    /**
+     * An index over the points that can be written while it is searched. Lucene writes a new index,
+     * separate from the one reused by the read-only benchmarks, as the writes would change it.
+     */
+    public MutablePointIndex createMutable(PointStore points, File outputDirectory, String suffix)
+            throws IOException {
+        switch (this) {
+            case geotools:
+                return new MutableGeotoolsIndex(points);
+            case jeo:
+                return new MutableJeoIndex(points);
+            case jsi:
+                // a loaded snapshot is a copy in memory, so writing it leaves the snapshot as it was
+                return new MutableJsiIndex((JsiIndex) create(points, outputDirectory, suffix), points);
+            case lucene:
+                return new MutableLuceneIndex(LuceneType.niofs.getDirectory(outputDirectory, "mutable-" + suffix),
+                        points);
+            default:
+                throw new UnsupportedOperationException("No mutable index for IndexType: " + this);
+        }
+    }
+
+    /**
+     * The index over the points, loaded from its snapshot or index directory when there is one for these points,
+     * otherwise built and saved for the next run.
+     */
+    public PointIndex create(PointStore points, File outputDirectory, String suffix)
+            throws IOException {
+        if (!hasSnapshot()) {
+            return newIndex(points, outputDirectory, suffix);
+        }
+        Path path = IndexSnapshot.getPath(outputDirectory, this, suffix);
+        if (Files.exists(path)) {
+            try {
+                long time = System.currentTimeMillis();
+                PointIndex index = loadSnapshot(path, points);
+                logger.info("Loaded {} snapshot {} in {}ms", this, path, System.currentTimeMillis() - time);
+                return index;
+            } catch (IOException e) {
+                logger.warn("Rebuilding {} index, cannot load snapshot: {}", this, e.getMessage());
+            }
+        }
+        PointIndex index = newIndex(points, outputDirectory, suffix);
+        try {
+            saveSnapshot(index, path, points);
+        } catch (IOException e) {
+            logger.warn("Cannot save {} snapshot: {}", this, e.getMessage());
+        }
+        return index;
+    }
+
+    PointIndex loadSnapshot(Path path, PointStore points) throws IOException {
+        try (IndexSnapshot.Reader reader = new IndexSnapshot.Reader(path, points)) {
+            switch (this) {
+                case jsi:
+                    return JsiIndex.load(reader, points);
+                case packed:
+                    return PackedRTree.load(reader);
+                case grid:
+                    return GridIndex.load(reader);
+                case vptree:
+                    return VpTree.load(reader, points);
+                default:
+                    throw new UnsupportedOperationException("No snapshot for IndexType: " + this);
+            }
+        }
+    }
+
+    void saveSnapshot(PointIndex index, Path path, PointStore points) throws IOException {
+        try (IndexSnapshot.Writer writer = new IndexSnapshot.Writer(path, points)) {
+            switch (this) {
+                case jsi:
+                    ((JsiIndex) index).save(writer);
+                    break;
+                case packed:
+                    ((PackedRTree) index).save(writer);
+                    break;
+                case grid:
+                    ((GridIndex) index).save(writer);
+                    break;
+                case vptree:
+                    ((VpTree) index).save(writer);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("No snapshot for IndexType: " + this);
+            }
+            writer.commit();
+        }
+    }
+
+    private PointIndex newIndex(PointStore points, File outputDirectory, String suffix)
+            throws IOException {
+        switch (this) {
+            case geotools:
+                return new GeotoolsIndex(points);
+            case jeo:
+                return new JeoIndex(points);
+            case jsi:
+                return new JsiIndex(points);
+            case lucene:
+                return LuceneIndex.open(LuceneType.niofs, outputDirectory, suffix, points.size(), () -> points);
+            case packed:
+                return new PackedRTree(points);
+            case grid:
+                return new GridIndex(points);
+            case strtree:
+                return new StrTreeIndex(points);
+            case vptree:
+                return new VpTree(points);
+            case quantized:
+                return new QuantizedIndex(points);
+            case bruteforce:
+                return new BruteForceIndex(points);
+            default:
+                throw new UnsupportedOperationException("IndexType: " + this);
+        }
+    }
+
+    /**
+     * Builds a new index from scratch, never reusing one on disk.
+     *
+     * @param parallel use every core where the engine can, see the README for what that means for each engine
+     */
+    public PointIndex build(PointStore points, boolean parallel, File outputDirectory, String suffix)
+            throws IOException {
+        switch (this) {
+            case geotools:
+                return new GeotoolsIndex(points, parallel);
+            case jeo:
+                // the VP-tree library has a single, sequential, bulk constructor
+                return new JeoIndex(points);
+            case jsi:
+                return new JsiIndex(points, parallel);
+            case lucene:
+                return LuceneIndex.build(LuceneType.niofs.getDirectory(outputDirectory, "build-" + suffix), points,
+                        parallel ? Runtime.getRuntime().availableProcessors() : 1);
+            case packed:
+                return new PackedRTree(points, PackedRTree.defaultNodeSize, parallel);
+            case grid:
+                return new GridIndex(points, GridIndex.defaultPointsPerCell, parallel);
+            case strtree:
+                // the sort-tile-recursive packing in JTS is sequential
+                return new StrTreeIndex(points);
+            case vptree:
+                return new VpTree(points, parallel);
+            case quantized:
+                return new QuantizedIndex(points, QuantizedIndex.defaultBlockSize, parallel);
+            case bruteforce:
+                // the positions are computed in one sequential pass
+                return new BruteForceIndex(points);
+            default:
+                throw new UnsupportedOperationException("IndexType: " + this);
+        }
+    }
+}
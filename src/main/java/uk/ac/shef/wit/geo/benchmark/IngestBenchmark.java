@@ -0,0 +1,137 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the engines that take their points one at a time from the point file, either materialised, every point
+ * copied onto the heap first and the index built from them as in the other benchmarks, or streamed through a
+ * {@link ChunkedIngest}, read a chunk at a time on one thread and indexed on another.
+ * <p>
+ * The time of each ingest is measured, from the mapped point file to the index. Its peak heap, the sum of the peak
+ * usage of each heap memory pool since the heap was collected before it, is printed at the end of each trial.
+ * The pools peak at different times, so it is an upper bound on the heap in use, garbage included.
+ */
+@State(Scope.Benchmark)
+public class IngestBenchmark
+        extends AbstractBenchmark {
+
+    @Param({"geotools", "jeo", "lucene"})
+    IndexType indexType;
+
+    @Param({"false", "true"})
+    boolean streaming;
+
+    @Param({"65536"})
+    int chunkPoints;
+
+    // the radius only affects queries, a single value stops every ingest being repeated for each radius
+    @Param({"0"})
+    int queryRadiusMetres;
+
+    private PointIndex index;
+    private long peakHeapBytes;
+    private int iterations;
+
+    @Setup(Level.Iteration)
+    public void resetPeakHeap() {
+        getUsedHeapBytes();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public PointIndex ingest() throws IOException {
+        if (streaming) {
+            index = ChunkedIngest.ingest(getIndexPointFile(),
+                    indexType.newLoader(getOutputDirectory(), getIndexName()), chunkPoints, ChunkedIngest.defaultChunks);
+        } else {
+            index = indexType.build(getIndexPoints(), false, getOutputDirectory(), getIndexName());
+        }
+        return index;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeIndex() throws IOException {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        peakHeapBytes = Math.max(peakHeapBytes, peak);
+        iterations++;
+        if (index instanceof Closeable) {
+            ((Closeable) index).close();
+        }
+        index = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        System.out.format("%n%s %s, %s, %d points: peak heap %d MB over %d ingests (warmup included)%n",
+                IngestBenchmark.class.getSimpleName(), indexType, streaming ? "streaming" : "materialised",
+                numberOfIndexPoints, peakHeapBytes / (1024 * 1024), iterations);
+    }
+
+    /**
+     * Runs the benchmark and prints the ingest rate of each engine, materialised and streaming,
+     * the peak heap is printed by each trial.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(IngestBenchmark.class.getSimpleName())
+                .param("numberOfIndexPoints", "100000", "1000000")
+                .param("distribution", "uniform")
+                .param("queryWorkload", "matching")
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        System.out.format("%nengine\tpoints\tstreaming\tms\tpoints/s%n");
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            int numberOfPoints = Integer.parseInt(params.getParam("numberOfIndexPoints"));
+            double millis = runResult.getPrimaryResult().getScore();
+            System.out.format("%s\t%d\t%s\t%.1f\t%.0f%n",
+                    params.getParam("indexType"),
+                    numberOfPoints,
+                    params.getParam("streaming"),
+                    millis,
+                    millis == 0 ? 0 : numberOfPoints * 1000 / millis);
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package uk.ac.shef.wit.geo.benchmark;
 
-import com.eatthepath.jvptree.DistanceFunction;
 import com.eatthepath.jvptree.VPTree;
-import org.apache.lucene.util.SloppyMath;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
@@ -15,8 +13,6 @@ import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 
-import java.util.AbstractMap;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -24,52 +20,16 @@ import java.util.concurrent.TimeUnit;
 public class JeoBenchmark
         extends AbstractBenchmark {
 
-    private VPTree<Point, LatLonPoint> index;
-
-    private interface Point {
-        double getLat();
-        double getLon();
-    }
-
-    private static class LatLonPoint implements Point {
-
-        final int id;
-        final double lat, lon;
-
-        public LatLonPoint(int id, double lat, double lon) {
-            this.id = id;
-            this.lat = lat;
-            this.lon = lon;
-        }
-
-        @Override
-        public double getLat() {
-            return lat;
-        }
-
-        @Override
-        public double getLon() {
-            return lon;
-        }
-    }
-
-    private static class HaversineDistanceFunction implements DistanceFunction<Point> {
-        @Override
-        public double getDistance(Point p1, Point p2) {
-            return SloppyMath.haversinMeters(p1.getLat(), p1.getLon(), p2.getLat(), p2.getLon());
-        }
-    }
-
+    private VPTree<JeoIndex.Point, JeoIndex.LatLonPoint> index;
+    private final JeoIndex.QueryPoint point = new JeoIndex.QueryPoint();
 
     @Setup
     public void setup() {
 
-        List<LatLonPoint> points = new ArrayList<>();
-        int i = 0;
-        for (double[] latlon : getIndexPoints()) {
-            points.add(new LatLonPoint(++i, latlon[0], latlon[1]));
-        }
-       index  = new VPTree<>(new HaversineDistanceFunction(), points);
+        PointStore points = getIndexPoints();
+        long heapBefore = getUsedHeapBytes();
+        index = new JeoIndex(points).getVPTree();
+        logIndexHeapUsage(heapBefore, points);
     }
 
     @Benchmark
@@ -81,16 +41,19 @@ public class JeoBenchmark
     public void query() {
 
         long nearestCount = 0;
-        for (double[] latlon : getQueryPoints()) {
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
             int id = 0;
-            LatLonPoint point = new LatLonPoint(0, latlon[0], latlon[1]);
-            List<LatLonPoint> neighbours = index.getNearestNeighbors(point, 1);
+            double distance = -1.0;
+            point.set(queryPoints.getLat(q), queryPoints.getLon(q));
+            List<JeoIndex.LatLonPoint> neighbours = index.getNearestNeighbors(point, 1);
             if (neighbours != null && !neighbours.isEmpty()) {
-                LatLonPoint nearest = neighbours.get(0);
+                JeoIndex.LatLonPoint nearest = neighbours.get(0);
                 nearestCount++;
                 id = nearest.id;
+                distance = GeoMath.haversinMeters(point.getLat(), point.getLon(), nearest.lat, nearest.lon);
             }
-            results.add(new AbstractMap.SimpleImmutableEntry<>(id, -1.0));
+            setResult(q, id, distance);
         }
 
         candidateCounts.add(nearestCount);
@@ -0,0 +1,204 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import com.eatthepath.jvptree.DistanceFunction;
+import com.eatthepath.jvptree.VPTree;
+import org.apache.lucene.util.SloppyMath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vantage-point tree over the points using haversine distances.
+ */
+final class JeoIndex
+        implements PointIndex {
+
+    interface Point {
+        double getLat();
+
+        double getLon();
+    }
+
+    static class LatLonPoint implements Point {
+
+        final int id;
+        final double lat, lon;
+
+        public LatLonPoint(int id, double lat, double lon) {
+            this.id = id;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public double getLat() {
+            return lat;
+        }
+
+        @Override
+        public double getLon() {
+            return lon;
+        }
+
+        /**
+         * Points are equal by id, so a point can be removed from the tree without the instance that was added.
+         */
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LatLonPoint && ((LatLonPoint) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+
+    /**
+     * A query point set in place for each query, so searches do not allocate one.
+     */
+    static final class QueryPoint implements Point {
+
+        private double lat, lon;
+
+        QueryPoint set(double lat, double lon) {
+            this.lat = lat;
+            this.lon = lon;
+            return this;
+        }
+
+        @Override
+        public double getLat() {
+            return lat;
+        }
+
+        @Override
+        public double getLon() {
+            return lon;
+        }
+    }
+
+    private static class HaversineDistanceFunction implements DistanceFunction<Point> {
+        @Override
+        public double getDistance(Point p1, Point p2) {
+            return SloppyMath.haversinMeters(p1.getLat(), p1.getLon(), p2.getLat(), p2.getLon());
+        }
+    }
+
+    private final VPTree<Point, LatLonPoint> index;
+
+    JeoIndex(PointStore indexPoints) {
+        List<LatLonPoint> points = new ArrayList<>(indexPoints.size());
+        indexPoints.forEach((id, lat, lon) -> points.add(new LatLonPoint(id, lat, lon)));
+        index = new VPTree<>(new HaversineDistanceFunction(), points);
+    }
+
+    private JeoIndex(VPTree<Point, LatLonPoint> index) {
+        this.index = index;
+    }
+
+    /**
+     * The points of each chunk are added to the tree together, which partitions a node again when it is full,
+     * rather than the whole tree being partitioned once from a list of every point.
+     */
+    static ChunkedIngest.Loader loader() {
+        VPTree<Point, LatLonPoint> index = new VPTree<>(new HaversineDistanceFunction());
+        List<LatLonPoint> chunk = new ArrayList<>();
+        return new ChunkedIngest.Loader() {
+            @Override
+            public void add(int offset, double[] lats, double[] lons, int length) {
+                chunk.clear();
+                for (int i = 0; i < length; i++) {
+                    chunk.add(new LatLonPoint(PointStore.getId(offset + i), lats[i], lons[i]));
+                }
+                index.addAll(chunk);
+            }
+
+            @Override
+            public PointIndex finish() {
+                return new JeoIndex(index);
+            }
+        };
+    }
+
+    VPTree<Point, LatLonPoint> getVPTree() {
+        return index;
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        QueryPoint point = new QueryPoint();
+        return (lat, lon, radiusMeters, result) -> {
+            result.clear();
+            List<LatLonPoint> neighbours = index.getNearestNeighbors(point.set(lat, lon), result.getK());
+            if (neighbours != null) {
+                for (LatLonPoint neighbour : neighbours) {
+                    double distance = SloppyMath.haversinMeters(lat, lon, neighbour.lat, neighbour.lon);
+                    if (distance < radiusMeters) {
+                        result.offer(neighbour.id, distance);
+                    }
+                }
+            }
+            return result.sort();
+        };
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        QueryPoint point = new QueryPoint();
+        return (lat, lon, radiusMeters, result) -> {
+            List<LatLonPoint> neighbours = index.getNearestNeighbors(point.set(lat, lon), 1);
+            if (neighbours == null || neighbours.isEmpty()) {
+                return result.clear();
+            }
+            LatLonPoint nearest = neighbours.get(0);
+            double distance = SloppyMath.haversinMeters(lat, lon, nearest.lat, nearest.lon);
+            return distance < radiusMeters ? result.set(nearest.id, distance) : result.clear();
+        };
+    }
+
+    /**
+     * The library finds the points within a distance, each one in a new list. A box is searched as the circle
+     * around its centre through its corners, with the box as the library's point filter.
+     */
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        QueryPoint point = new QueryPoint();
+        return new RangeSearcher() {
+            @Override
+            public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+                List<LatLonPoint> found = index.getAllWithinDistance(point.set(lat, lon), radiusMeters);
+                return add(found, result);
+            }
+
+            @Override
+            public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+                List<LatLonPoint> found = index.getAllWithinDistance(
+                        point.set((minLat + maxLat) / 2, (minLon + maxLon) / 2),
+                        GeoMath.boxRadiusMeters(minLat, maxLat, minLon, maxLon),
+                        p -> GeoMath.inBox(p.lat, p.lon, minLat, maxLat, minLon, maxLon));
+                return add(found, result);
+            }
+
+            private int add(List<LatLonPoint> found, PointIds result) {
+                if (result != null) {
+                    result.clear();
+                    for (LatLonPoint p : found) {
+                        result.add(p.id);
+                    }
+                }
+                return found.size();
+            }
+
+            @Override
+            public int countWithinDistance(double lat, double lon, double radiusMeters) {
+                return withinDistance(lat, lon, radiusMeters, null);
+            }
+
+            @Override
+            public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+                return withinBox(minLat, maxLat, minLon, maxLon, null);
+            }
+        };
+    }
+}
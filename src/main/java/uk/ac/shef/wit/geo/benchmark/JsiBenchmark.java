@@ -1,9 +1,7 @@
 package uk.ac.shef.wit.geo.benchmark;
 
 import com.infomatiq.jsi.Point;
-import com.infomatiq.jsi.Rectangle;
 import com.infomatiq.jsi.rtree.RTree;
-import me.tongfei.progressbar.ProgressBar;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
@@ -18,39 +16,33 @@ import org.openjdk.jmh.annotations.Warmup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.util.AbstractMap;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 @State(Scope.Thread)
 public class JsiBenchmark
         extends AbstractBenchmark {
 
     private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    private final RTree rtree;
-
-    public JsiBenchmark() {
-        rtree = new RTree();
-        rtree.init(null);
-    }
+    private RTree rtree;
+    // reused between queries
+    private final Point point = new Point(0, 0);
+    private int nearestId;
 
     @Setup
     public void setup() {
-        int i = 0;
         logger.info("Creating or reading {} points", numberOfIndexPoints);
-        List<double[]> latlons = getIndexPoints();
+        PointStore points = getIndexPoints();
+        long heapBefore = getUsedHeapBytes();
         logger.info("Indexing points");
-        try (ProgressBar pg = new ProgressBar("Points", numberOfIndexPoints)) {
-            for (double[] latlon : latlons) {
-                Rectangle rect = new Rectangle(
-                        (float) latlon[0], (float) latlon[1],
-                        (float) latlon[0], (float) latlon[1]);
-                rtree.add(rect, ++i);
-                pg.step();
-            }
+        try {
+            rtree = ((JsiIndex) IndexType.jsi.create(points, getOutputDirectory(), getIndexName()))
+                    .getRTree();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        logIndexHeapUsage(heapBefore, points);
     }
 
     @Benchmark
@@ -61,22 +53,22 @@ public class JsiBenchmark
     @Measurement(iterations = 1)
     public void query() {
 
-        // 1 degree is approximately 100km
-        float queryRadiusDegrees = queryRadiusMetres / 100000f;
+        float queryRadiusDegrees = JsiIndex.toDegrees(queryRadiusMetres);
 
         long nearestCount = 0;
-        for (double[] latlon : getQueryPoints()) {
-            Point p = new Point((float) latlon[0], (float) latlon[1]);
-
-            AtomicInteger id = new AtomicInteger();
-            rtree.nearest(p, v -> {
-                id.set(v);
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
+            point.x = (float) queryPoints.getLat(q);
+            point.y = (float) queryPoints.getLon(q);
+            nearestId = 0;
+            rtree.nearest(point, id -> {
+                nearestId = id;
                 return true;
             }, queryRadiusDegrees);
-            if (id.get() > 0) {
+            if (nearestId > 0) {
                 nearestCount++;
             }
-            results.add(new AbstractMap.SimpleImmutableEntry<>(id.get(), -1.0));
+            setResult(q, nearestId, -1.0);
         }
 
         candidateCounts.add(nearestCount);
@@ -0,0 +1,205 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import com.infomatiq.jsi.Point;
+import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.rtree.RTree;
+import me.tongfei.progressbar.ProgressBar;
+
+import java.io.IOException;
+
+/**
+ * JSI R-tree over the points in Cartesian lat/lon degrees, held as float rectangles.
+ */
+final class JsiIndex
+        implements PointIndex {
+
+    private final PointStore points;
+    private final RTree rtree;
+
+    JsiIndex(PointStore points) {
+        this(points, false);
+    }
+
+    /**
+     * @param hilbertOrder insert the points in Hilbert curve order, JSI has no bulk loading so this is the
+     *                     nearest it gets to sort-then-pack: neighbouring inserts land in the same nodes
+     */
+    JsiIndex(PointStore points, boolean hilbertOrder) {
+        this.points = points;
+        rtree = new RTree();
+        rtree.init(null);
+        int[] order = hilbertOrder ? SpaceFillingCurve.hilbertOrder(points, true) : null;
+        try (ProgressBar pg = new ProgressBar("Points", points.size())) {
+            for (int i = 0; i < points.size(); i++) {
+                int index = order == null ? i : order[i];
+                float lat = (float) points.getLat(index);
+                float lon = (float) points.getLon(index);
+                rtree.add(new Rectangle(lat, lon, lat, lon), PointStore.getId(index));
+                pg.step();
+            }
+        }
+    }
+
+    private JsiIndex(PointStore points, RTree rtree) {
+        this.points = points;
+        this.rtree = rtree;
+    }
+
+    /**
+     * The JSI tree has no flat layout, it is streamed with Java serialization.
+     */
+    void save(IndexSnapshot.Writer writer) throws IOException {
+        writer.putObject(rtree);
+    }
+
+    static JsiIndex load(IndexSnapshot.Reader reader, PointStore points) throws IOException {
+        return new JsiIndex(points, (RTree) reader.getObject());
+    }
+
+    RTree getRTree() {
+        return rtree;
+    }
+
+    static float toDegrees(double meters) {
+        // 1 degree is approximately 100km
+        return (float) (meters / 100000);
+    }
+
+    /**
+     * JSI ranks the k nearest by Cartesian degrees, which need not be the k nearest by haversine distance away from
+     * the equator. They only bound the search: the haversine k nearest are all no further than the furthest of them,
+     * so every point in the box around that distance, or around the radius if JSI found fewer than k, is tested by
+     * haversine distance and the k nearest within the radius in metres kept.
+     */
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        return new KNearestSearcher() {
+            private final Point point = new Point(0, 0);
+            private final Rectangle rectangle = new Rectangle();
+
+            @Override
+            public int nearest(double lat, double lon, double radiusMeters, Neighbours result) {
+                point.x = (float) lat;
+                point.y = (float) lon;
+                result.clear();
+                rtree.nearestN(point, id -> {
+                    int index = PointStore.getIndex(id);
+                    result.offer(id, GeoMath.haversinMeters(lat, lon, points.getLat(index), points.getLon(index)));
+                    return true;
+                }, result.getK(), toDegrees(radiusMeters));
+                double bound = result.size() < result.getK() ? radiusMeters : Math.min(radiusMeters, result.bound());
+
+                result.clear();
+                org.apache.lucene.geo.Rectangle box = GeoMath.distanceBox(lat, lon, bound);
+                rectangle.set(Math.nextDown((float) box.minLat), Math.nextDown((float) box.minLon),
+                        Math.nextUp((float) box.maxLat), Math.nextUp((float) box.maxLon));
+                rtree.intersects(rectangle, id -> {
+                    int index = PointStore.getIndex(id);
+                    double distance = GeoMath.haversinMeters(lat, lon, points.getLat(index), points.getLon(index));
+                    if (distance < radiusMeters) {
+                        result.offer(id, distance);
+                    }
+                    return true;
+                });
+                return result.sort();
+            }
+        };
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        return new Searcher() {
+            private final Point point = new Point(0, 0);
+            private int nearestId;
+
+            @Override
+            public boolean nearest(double lat, double lon, double radiusMeters, Neighbour result) {
+                point.x = (float) lat;
+                point.y = (float) lon;
+                nearestId = 0;
+                rtree.nearest(point, id -> {
+                    nearestId = id;
+                    return true;
+                }, toDegrees(radiusMeters));
+                if (nearestId == 0) {
+                    return result.clear();
+                }
+                int index = PointStore.getIndex(nearestId);
+                return result.set(nearestId, GeoMath.haversinMeters(lat, lon, points.getLat(index), points.getLon(index)));
+            }
+        };
+    }
+
+    /**
+     * JSI has no count, every query visits the ids in the float rectangle, rounded outwards, and tests each point
+     * by its double coordinates. The circle of a distance query is searched as the box around it.
+     */
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        return new RangeSearcher() {
+            private final Rectangle rectangle = new Rectangle();
+            private double lat, lon, radiusMeters;
+            private double minLat, maxLat, minLon, maxLon;
+            private boolean box;
+            private PointIds found;
+            private int count;
+
+            private boolean test(int id) {
+                int index = PointStore.getIndex(id);
+                double pointLat = points.getLat(index);
+                double pointLon = points.getLon(index);
+                if (box ? GeoMath.inBox(pointLat, pointLon, minLat, maxLat, minLon, maxLon) :
+                        GeoMath.haversinMeters(lat, lon, pointLat, pointLon) <= radiusMeters) {
+                    count++;
+                    if (found != null) {
+                        found.add(id);
+                    }
+                }
+                return true;
+            }
+
+            private int query(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+                if (result != null) {
+                    result.clear();
+                }
+                found = result;
+                count = 0;
+                rectangle.set(Math.nextDown((float) minLat), Math.nextDown((float) minLon),
+                        Math.nextUp((float) maxLat), Math.nextUp((float) maxLon));
+                // a method reference, not a field, as the trove type of the callback differs between JSI releases
+                rtree.intersects(rectangle, this::test);
+                return count;
+            }
+
+            @Override
+            public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+                this.lat = lat;
+                this.lon = lon;
+                this.radiusMeters = radiusMeters;
+                box = false;
+                org.apache.lucene.geo.Rectangle circle = GeoMath.distanceBox(lat, lon, radiusMeters);
+                return query(circle.minLat, circle.maxLat, circle.minLon, circle.maxLon, result);
+            }
+
+            @Override
+            public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+                this.minLat = minLat;
+                this.maxLat = maxLat;
+                this.minLon = minLon;
+                this.maxLon = maxLon;
+                box = true;
+                return query(minLat, maxLat, minLon, maxLon, result);
+            }
+
+            @Override
+            public int countWithinDistance(double lat, double lon, double radiusMeters) {
+                return withinDistance(lat, lon, radiusMeters, null);
+            }
+
+            @Override
+            public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+                return withinBox(minLat, maxLat, minLon, maxLon, null);
+            }
+        };
+    }
+}
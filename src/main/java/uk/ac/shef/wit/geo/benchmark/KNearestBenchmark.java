@@ -0,0 +1,130 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.Statistics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The k nearest points to each query, ranked by haversine distance, to show how each engine degrades as k grows.
+ * <p>
+ * {@link #query()} is the batch throughput of all the query points, as in the per-engine benchmarks,
+ * {@link #lookup()} the latency of single lookups, as in {@link LatencyBenchmark}.
+ */
+@State(Scope.Thread)
+public class KNearestBenchmark
+        extends AbstractBenchmark {
+
+    @Param({"packed", "grid", "jsi", "lucene", "geotools", "strtree", "jeo", "vptree", "quantized"})
+    IndexType indexType;
+
+    @Param({"1", "10", "100"})
+    int k;
+
+    private PointIndex index;
+    private PointIndex.KNearestSearcher searcher;
+    private Neighbours neighbours;
+    private PointStore queryPoints;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        PointStore points = getIndexPoints();
+        try {
+            index = indexType.create(points, getOutputDirectory(), getIndexName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        searcher = index.newKNearestSearcher();
+        neighbours = new Neighbours(k);
+        queryPoints = getQueryPoints();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    public long query() {
+        long neighbourCount = 0;
+        for (int q = 0; q < queryPoints.size(); q++) {
+            neighbourCount += searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, neighbours);
+        }
+        return neighbourCount;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public int lookup() {
+        int q = next;
+        next = q + 1 == queryPoints.size() ? 0 : q + 1;
+        return searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, neighbours);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeIndex() {
+        if (index instanceof Closeable) {
+            try {
+                ((Closeable) index).close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark and prints the throughput and latency percentiles, in microseconds, of each engine against k.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(KNearestBenchmark.class.getSimpleName())
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        System.out.format("%nengine\tpoints\tradius\tdistribution\tqueries\tk\tmode\tscore\tp50\tp99\tp99.9%n");
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            Statistics statistics = runResult.getPrimaryResult().getStatistics();
+            boolean sampled = params.getMode() == Mode.SampleTime;
+            System.out.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%.3f\t%s\t%s\t%s%n",
+                    params.getParam("indexType"),
+                    params.getParam("numberOfIndexPoints"),
+                    params.getParam("queryRadiusMetres"),
+                    params.getParam("distribution"),
+                    params.getParam("queryWorkload"),
+                    params.getParam("k"),
+                    params.getMode().shortLabel(),
+                    runResult.getPrimaryResult().getScore(),
+                    sampled ? String.format("%.1f", statistics.getPercentile(50)) : "",
+                    sampled ? String.format("%.1f", statistics.getPercentile(99)) : "",
+                    sampled ? String.format("%.1f", statistics.getPercentile(99.9)) : "");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.Statistics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of a single nearest lookup, each operation is one query point, cycling through the query set.
+ * <p>
+ * JMH samples the time of individual operations, so the percentiles show the tail latency that the
+ * batch throughput of the per-engine benchmarks hides.
+ */
+@State(Scope.Thread)
+public class LatencyBenchmark
+        extends AbstractBenchmark {
+
+    @Param({"packed", "grid", "jsi", "lucene", "geotools", "strtree", "jeo", "vptree", "quantized"})
+    IndexType indexType;
+
+    private PointIndex index;
+    private PointIndex.Searcher searcher;
+    private final Neighbour neighbour = new Neighbour();
+    private PointStore queryPoints;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        PointStore points = getIndexPoints();
+        try {
+            index = indexType.create(points, getOutputDirectory(), getIndexName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        searcher = index.newSearcher();
+        queryPoints = getQueryPoints();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public int lookup() {
+        int q = next;
+        next = q + 1 == queryPoints.size() ? 0 : q + 1;
+        searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, neighbour);
+        return neighbour.id;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeIndex() {
+        if (index instanceof Closeable) {
+            try {
+                ((Closeable) index).close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark and prints the latency percentiles, in microseconds, of each engine,
+     * number of index points, query radius, distribution and query workload.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(LatencyBenchmark.class.getSimpleName())
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        System.out.format("%nengine\tpoints\tradius\tdistribution\tqueries\tp50\tp99\tp99.9\tmax%n");
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            Statistics statistics = runResult.getPrimaryResult().getStatistics();
+            System.out.format("%s\t%s\t%s\t%s\t%s\t%.1f\t%.1f\t%.1f\t%.1f%n",
+                    params.getParam("indexType"),
+                    params.getParam("numberOfIndexPoints"),
+                    params.getParam("queryRadiusMetres"),
+                    params.getParam("distribution"),
+                    params.getParam("queryWorkload"),
+                    statistics.getPercentile(50),
+                    statistics.getPercentile(99),
+                    statistics.getPercentile(99.9),
+                    statistics.getMax());
+        }
+    }
+}
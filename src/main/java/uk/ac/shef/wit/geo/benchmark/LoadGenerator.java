@@ -0,0 +1,280 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Open-loop load on a {@link NearestService} over each engine: requests are sent at a fixed rate whether or not
+ * the earlier ones have been answered, as requests from many independent clients arrive, and the latency of each is
+ * measured from when it was due to be sent. A closed loop, as in the JMH benchmarks, waits for each answer before
+ * the next request, so a stalled service is sent fewer requests and its queueing delay is never measured.
+ * <p>
+ * For each engine, transport and dispatch the offered rate is raised through the rates given, printing the
+ * throughput achieved and the latency percentiles at each, until the service has fallen behind at two rates in a
+ * row. The saturation point is the highest rate the service kept up with, answering nearly all requests, none
+ * rejected, failed or timed out, at the rate they were sent.
+ * <pre>
+ * LoadGenerator [indexType,... [numberOfIndexPoints,... [transport,... [dispatch,... [rate,...]]]]]
+ * </pre>
+ */
+public class LoadGenerator
+        extends AbstractBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final int warmupSeconds = 2;
+    private static final int durationSeconds = 5;
+    // requests not answered within this time after the last was sent are counted as timed out
+    private static final int timeoutSeconds = 10;
+    // queued requests the platform pool holds before rejecting more
+    private static final int queueCapacity = 1000;
+    // the service has kept up with a rate if it answered at least this proportion of it
+    private static final double keptUpRatio = 0.95;
+
+    /**
+     * How requests reach the {@link NearestService}.
+     * <ul>
+     * <li>direct - the lookup is submitted to the service's executor</li>
+     * <li>http - a GET request on the loopback interface, sent asynchronously by {@link HttpClient}</li>
+     * </ul>
+     */
+    enum Transport {
+        direct, http
+    }
+
+    /**
+     * The requests sent at one rate and the latencies of those answered.
+     */
+    static final class Run {
+
+        final int rate;
+        final long[] latencies;
+        final int rejected;
+        final int failed;
+        final int timedOut;
+        final double achievedRate;
+
+        Run(int rate, long[] latencies, int rejected, int failed, int timedOut, double achievedRate) {
+            this.rate = rate;
+            this.latencies = latencies;
+            this.rejected = rejected;
+            this.failed = failed;
+            this.timedOut = timedOut;
+            this.achievedRate = achievedRate;
+        }
+
+        boolean keptUp() {
+            return rejected == 0 && failed == 0 && timedOut == 0 && achievedRate >= keptUpRatio * rate;
+        }
+
+        double percentileMicros(double percentile) {
+            if (latencies.length == 0) {
+                return Double.NaN;
+            }
+            int i = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, i)] / 1e3;
+        }
+
+        static String header() {
+            return "engine\tpoints\ttransport\tdispatch\toffered/s\tachieved/s\tp50 us\tp90 us\tp99 us\tp99.9 us\t" +
+                    "max us\trejected\tfailed\ttimedOut";
+        }
+
+        String toString(String prefix) {
+            return String.format("%s\t%d\t%.0f\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%d\t%d\t%d",
+                    prefix, rate, achievedRate, percentileMicros(50), percentileMicros(90), percentileMicros(99),
+                    percentileMicros(99.9), percentileMicros(100), rejected, failed, timedOut);
+        }
+    }
+
+    /**
+     * Sends requests at the rate for the number of seconds, cycling through the query points,
+     * then waits for the answers.
+     */
+    Run run(NearestService service, HttpClient client, URI uri, int rate, int seconds) throws InterruptedException {
+        PointStore queryPoints = getQueryPoints();
+        int n = rate * seconds;
+        HttpRequest[] requests = null;
+        if (client != null) {
+            // built up front so the sending thread only sends
+            requests = new HttpRequest[queryPoints.size()];
+            for (int q = 0; q < queryPoints.size(); q++) {
+                requests[q] = HttpRequest.newBuilder(URI.create(uri + "?lat=" + queryPoints.getLat(q) +
+                        "&lon=" + queryPoints.getLon(q))).build();
+            }
+        }
+
+        // the latency of each request, -1 until it is answered
+        long[] latencies = new long[n];
+        Arrays.fill(latencies, -1);
+        CountDownLatch outstanding = new CountDownLatch(n);
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        LongAccumulator lastAnswer = new LongAccumulator(Math::max, 0);
+        long start = System.nanoTime();
+        double interval = 1e9 / rate;
+
+        for (int k = 0; k < n; k++) {
+            long due = start + (long) (k * interval);
+            for (long delay = due - System.nanoTime(); delay > 0; delay = due - System.nanoTime()) {
+                LockSupport.parkNanos(delay);
+            }
+            int request = k;
+            int q = k % queryPoints.size();
+            if (client == null) {
+                try {
+                    service.submit(queryPoints.getLat(q), queryPoints.getLon(q), new NearestService.Completion() {
+                        @Override
+                        public void completed(boolean found) {
+                            long now = System.nanoTime();
+                            latencies[request] = now - due;
+                            lastAnswer.accumulate(now);
+                            outstanding.countDown();
+                        }
+
+                        @Override
+                        public void failed(Throwable e) {
+                            failed.incrementAndGet();
+                            outstanding.countDown();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
+                    outstanding.countDown();
+                }
+            } else {
+                client.sendAsync(requests[q], HttpResponse.BodyHandlers.ofString()).whenComplete((response, e) -> {
+                    long now = System.nanoTime();
+                    if (e == null && response.statusCode() == 503) {
+                        rejected.incrementAndGet();
+                    } else if (e != null || response.statusCode() != 200) {
+                        failed.incrementAndGet();
+                    } else {
+                        latencies[request] = now - due;
+                        lastAnswer.accumulate(now);
+                    }
+                    outstanding.countDown();
+                });
+            }
+        }
+        outstanding.await(timeoutSeconds, TimeUnit.SECONDS);
+
+        // requests answered after the wait are counted as timed out, wherever the race leaves them
+        long[] answered = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+        int timedOut = (int) outstanding.getCount();
+        double elapsed = (lastAnswer.get() - start) / 1e9;
+        return new Run(rate, answered, rejected.get(), failed.get(), timedOut,
+                answered.length == 0 ? 0 : answered.length / elapsed);
+    }
+
+    /**
+     * Runs each engine as a service over the index points, raising the offered rate until it falls behind.
+     */
+    void generate(List<IndexType> indexTypes, List<Transport> transports, List<NearestService.Dispatch> dispatches,
+                  int[] rates) throws IOException, InterruptedException {
+        PointStore points = getIndexPoints();
+        for (IndexType indexType : indexTypes) {
+            // JSI keeps the state of a search in the tree, so its searches are serialised by the mutable index
+            PointIndex index = indexType == IndexType.jsi ?
+                    indexType.createMutable(points, getOutputDirectory(), getIndexName()) :
+                    indexType.create(points, getOutputDirectory(), getIndexName());
+            for (Transport transport : transports) {
+                for (NearestService.Dispatch dispatch : dispatches) {
+                    generate(indexType, index, transport, dispatch, rates);
+                }
+            }
+            if (index instanceof Closeable) {
+                ((Closeable) index).close();
+            }
+        }
+    }
+
+    private void generate(IndexType indexType, PointIndex index, Transport transport,
+                          NearestService.Dispatch dispatch, int[] rates) throws IOException, InterruptedException {
+        String prefix = String.format("%s\t%d\t%s\t%s", indexType, numberOfIndexPoints, transport, dispatch);
+        NearestService service;
+        try {
+            service = new NearestService(index, queryRadiusMetres, dispatch, queueCapacity);
+        } catch (UnsupportedOperationException e) {
+            logger.warn("{}: {}", prefix.replace('\t', ' '), e.getMessage());
+            return;
+        }
+        HttpClient client = null;
+        try (service) {
+            URI uri = null;
+            if (transport == Transport.http) {
+                uri = service.startHttp();
+                client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            }
+            run(service, client, uri, rates[0], warmupSeconds);
+
+            int saturation = 0;
+            boolean behind = false;
+            for (int rate : rates) {
+                Run run = run(service, client, uri, rate, durationSeconds);
+                System.out.println(run.toString(prefix));
+                if (run.keptUp()) {
+                    saturation = rate;
+                    behind = false;
+                } else if (behind) {
+                    break;
+                } else {
+                    behind = true;
+                }
+            }
+            System.out.format("%s\tsaturation\t%s%n", prefix,
+                    saturation == 0 ? "below " + rates[0] :
+                            saturation == rates[rates.length - 1] ? "above " + saturation : saturation);
+        }
+    }
+
+    private static int[] parseInts(String value) {
+        return Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    public static void main(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            List<IndexType> indexTypes = args.length > 0 ?
+                    Arrays.stream(args[0].split(",")).map(IndexType::valueOf).collect(Collectors.toList()) :
+                    Arrays.asList(IndexType.values());
+            int[] sizes = args.length > 1 ? parseInts(args[1]) : new int[]{1000000};
+            List<Transport> transports = args.length > 2 ?
+                    Arrays.stream(args[2].split(",")).map(Transport::valueOf).collect(Collectors.toList()) :
+                    Arrays.asList(Transport.values());
+            List<NearestService.Dispatch> dispatches = args.length > 3 ?
+                    Arrays.stream(args[3].split(",")).map(NearestService.Dispatch::valueOf)
+                            .collect(Collectors.toList()) :
+                    Arrays.asList(NearestService.Dispatch.values());
+            int[] rates = args.length > 4 ? parseInts(args[4]) :
+                    new int[]{1000, 2000, 5000, 10000, 20000, 50000, 100000};
+            generator.queryRadiusMetres = 10000;
+            System.out.println(Run.header());
+            for (int size : sizes) {
+                generator.numberOfIndexPoints = size;
+                generator.generate(indexTypes, transports, dispatches, rates);
+            }
+        } catch (IOException e) {
+            logger.error("", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
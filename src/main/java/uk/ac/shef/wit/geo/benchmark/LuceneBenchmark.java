@@ -1,14 +1,7 @@
 package uk.ac.shef.wit.geo.benchmark;
 
-import me.tongfei.progressbar.ProgressBar;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.document.LatLonDocValuesField;
 import org.apache.lucene.document.LatLonPoint;
-import org.apache.lucene.document.StoredField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.sandbox.search.LatLonPointPrototypeQueries;
 import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
@@ -17,16 +10,13 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.ByteBuffersDirectory;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.MMapDirectory;
-import org.apache.lucene.store.NIOFSDirectory;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -35,16 +25,10 @@ import org.openjdk.jmh.annotations.Warmup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.AbstractMap;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
 
 @State(Scope.Thread)
 public class LuceneBenchmark
@@ -53,132 +37,92 @@ public class LuceneBenchmark
 
     private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
-    private enum LuceneType {
-        ram, mmap, niofs;
+    @FunctionalInterface
+    interface TopDocsQuery {
+        TopDocs search(double lat, double lon) throws IOException;
+    }
 
-        public Path getIndexPath(File outputDirectory, String suffix) {
-            switch (this) {
-                case ram:
-                    return null;
-                case mmap:
-                case niofs:
-                    return Paths.get(outputDirectory.getAbsolutePath(), "lucene-" + suffix);
-                default:
-                    throw new UnsupportedOperationException("LuceneType: " + this);
-            }
-        }
+    @Param({"ram", "mmap", "niofs"})
+    LuceneType luceneType = LuceneType.niofs;
 
-        public Directory getDirectory(File outputDirectory, String suffix)
-                throws IOException {
-            switch (this) {
-                case ram:
-                    return new ByteBuffersDirectory();
-                case mmap:
-                    //noinspection ConstantConditions
-                    return new MMapDirectory(getIndexPath(outputDirectory, suffix));
-                case niofs:
-                    //noinspection ConstantConditions
-                    return NIOFSDirectory.open(getIndexPath(outputDirectory, suffix));
-                default:
-                    throw new UnsupportedOperationException("LuceneType: " + this);
-            }
-        }
-    }
+    // a single segment, or the segments left by the default merge policy
+    @Param({"false", "true"})
+    boolean forceMerge;
+
+    // sweep with -p indexSort=none,hilbert,morton
+    @Param({"none"})
+    LuceneIndexSort indexSort = LuceneIndexSort.none;
+
+    // searching the segments on the calling thread or in parallel, sweep with -p searchExecutor=none,fixed
+    // and add virtual on Java 21
+    @Param({"none"})
+    LuceneExecutor searchExecutor = LuceneExecutor.none;
 
-    private final LuceneType luceneType = LuceneType.niofs;
+    // sweep with -p idSource=stored,docValues,cached
+    @Param({"stored"})
+    LuceneIdSource idSource = LuceneIdSource.stored;
 
-    private final String fieldName = "location";
+    private final String fieldName = LuceneIndex.fieldName;
+    private LuceneIndex luceneIndex = null;
     private IndexSearcher indexSearcher = null;
+    private BkdNearest bkdNearest = null;
+    private ExecutorService executorService = null;
+    private LuceneIdSource.IdResolver idResolver = null;
 
     @Setup
     public void setup() {
-
         try {
-            boolean createIndex = true;
-            Path indexPath = luceneType.getIndexPath(getOutputDirectory(), indexPrefix + "-" + numberOfIndexPoints);
-            if (indexPath != null && Files.exists(indexPath)) {
-                logger.info("Reading Lucene index at {}...", indexPath.toAbsolutePath());
-                int count;
-
-                try (Directory directory = luceneType.getDirectory(getOutputDirectory(), indexPrefix + "-" + numberOfIndexPoints);
-                     IndexReader indexReader = DirectoryReader.open(directory)) {
-                    count = indexReader.numDocs();
-                }
-
-                if (count == 0) {
-                    logger.error("Index is empty");
-                } else if (numberOfIndexPoints != count) {
-                    logger.error("Index contains incorrect number of documents. Expected {}, found {}",
-                            numberOfIndexPoints, count);
-                } else {
-                    logger.info("Index {} contains {} documents", indexPath, count);
-                    createIndex = false;
-                }
+            String suffix = getIndexName() +
+                    (forceMerge ? "-merged" : "") +
+                    (indexSort == LuceneIndexSort.none ? "" : "-" + indexSort);
+            // creates the index on disk if there is not one, so only opening the searcher is measured below
+            if (luceneType.getIndexPath(getOutputDirectory(), suffix) != null) {
+                LuceneIndex.open(luceneType, getOutputDirectory(), suffix, numberOfIndexPoints, this::getIndexPoints,
+                        forceMerge, indexSort).close();
             }
-
-            Directory directory = luceneType.getDirectory(getOutputDirectory(), indexPrefix + "-" + numberOfIndexPoints);
-            if (createIndex) {
-                IndexWriterConfig iwConfig = new IndexWriterConfig();
-                iwConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-                IndexWriter indexWriter = new IndexWriter(directory, iwConfig);
-
-                int i = 0;
-                logger.info("Creating or reading {} points", numberOfIndexPoints);
-                List<double[]> latlons = getIndexPoints();
-                logger.info("Indexing points");
-                try (ProgressBar progressBar = new ProgressBar("Documents:", latlons.size())) {
-                    for (double[] latlon : latlons) {
-                        progressBar.step();
-                        Document doc = new Document();
-                        doc.add(new StoredField("id", ++i));
-                        doc.add(new LatLonPoint(fieldName, latlon[0], latlon[1]));
-                        doc.add(new LatLonDocValuesField(fieldName, latlon[0], latlon[1]));
-                        indexWriter.addDocument(doc);
-                    }
-                }
-                indexWriter.commit();
-                indexWriter.close();
+            long heapBefore = getUsedHeapBytes();
+            luceneIndex = LuceneIndex.open(luceneType, getOutputDirectory(), suffix, numberOfIndexPoints, this::getIndexPoints,
+                    forceMerge, indexSort);
+            indexSearcher = luceneIndex.getIndexSearcher();
+            executorService = searchExecutor.create();
+            if (executorService != null) {
+                indexSearcher = new IndexSearcher(indexSearcher.getIndexReader(), executorService);
             }
-            final IndexReader indexReader = DirectoryReader.open(directory);
-            indexSearcher = new IndexSearcher(indexReader);
+            idResolver = idSource.newIdResolver(indexSearcher.getIndexReader());
+            bkdNearest = new BkdNearest(indexSearcher.getIndexReader(), fieldName);
+            logger.info("{}: searcher heap {} KB for {} points in {} segments", luceneType,
+                    (getUsedHeapBytes() - heapBefore) / 1024, numberOfIndexPoints,
+                    indexSearcher.getIndexReader().leaves().size());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-//    @Benchmark
+    @Benchmark
     @BenchmarkMode(Mode.Throughput)
     @OutputTimeUnit(TimeUnit.SECONDS)
     @Fork(value = 1)
     @Warmup(iterations = 0)
     @Measurement(iterations = 1)
     public void distanceSortQuery() {
-        benchmark(latlon -> {
-            Query q = LatLonPoint.newDistanceQuery(fieldName, latlon[0], latlon[1], queryRadiusMetres);
-            Sort sort = new Sort(LatLonDocValuesField.newDistanceSort(fieldName, latlon[0], latlon[1]));
-            try {
-                return indexSearcher.search(q, 1, sort);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+        benchmark((lat, lon) -> {
+            Query q = LatLonPoint.newDistanceQuery(fieldName, lat, lon, queryRadiusMetres);
+            Sort sort = new Sort(LatLonDocValuesField.newDistanceSort(fieldName, lat, lon));
+            return indexSearcher.search(q, 1, sort);
         });
     }
 
-//    @Benchmark
+    @Benchmark
     @BenchmarkMode(Mode.Throughput)
     @OutputTimeUnit(TimeUnit.SECONDS)
     @Fork(value = 1)
     @Warmup(iterations = 0)
     @Measurement(iterations = 1)
     public void sortQuery() {
-        benchmark(latlon -> {
+        benchmark((lat, lon) -> {
             Query q = new MatchAllDocsQuery();
-            Sort sort = new Sort(LatLonDocValuesField.newDistanceSort(fieldName, latlon[0], latlon[1]));
-            try {
-                return indexSearcher.search(q, 1, sort);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            Sort sort = new Sort(LatLonDocValuesField.newDistanceSort(fieldName, lat, lon));
+            return indexSearcher.search(q, 1, sort);
         });
     }
 
@@ -189,25 +133,33 @@ public class LuceneBenchmark
     @Warmup(iterations = 0)
     @Measurement(iterations = 1)
     public void nearest() {
-        benchmark(latlon -> {
-            try {
-                return LatLonPointPrototypeQueries.nearest(indexSearcher, fieldName, latlon[0], latlon[1], 1);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        benchmark((lat, lon) ->
+                LatLonPointPrototypeQueries.nearest(indexSearcher, fieldName, lat, lon, 1));
     }
 
-    public void benchmark(Function<double[], TopDocs> getTopDocsFunction) {
+    /**
+     * The nearest point by a best-first walk of the BKD trees, bounded by the query radius from the start.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public void bkdNearest() {
+        benchmark((lat, lon) -> bkdNearest.nearest(lat, lon, queryRadiusMetres));
+    }
+
+    public void benchmark(TopDocsQuery topDocsQuery) {
 
         long candidateCount = 0;
         long nearestCount = 0;
-        results.clear();
-        for (double[] latlon : getQueryPoints()) {
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
             int id = 0;
             float distance = -1;
             try {
-                TopDocs topDocs = getTopDocsFunction.apply(latlon);
+                TopDocs topDocs = topDocsQuery.search(queryPoints.getLat(q), queryPoints.getLon(q));
 
                 candidateCount += topDocs.totalHits.value;
                 if (topDocs.totalHits.value != 0) {
@@ -216,14 +168,13 @@ public class LuceneBenchmark
                         distance = ((Double) ((FieldDoc) scoreDoc).fields[0]).floatValue();
                     else
                         distance = scoreDoc.score;
-                    Document doc = indexSearcher.doc(scoreDoc.doc);
-                    id = Integer.parseInt(doc.get("id"));
+                    id = idResolver.getId(scoreDoc.doc);
                     nearestCount++;
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
-            results.add(new AbstractMap.SimpleImmutableEntry<>(id, (double) distance));
+            setResult(q, id, distance);
         }
 
         candidateCounts.add(nearestCount == 0 ? 0 : candidateCount / nearestCount);
@@ -233,11 +184,15 @@ public class LuceneBenchmark
     @TearDown
     public void teardown() {
         super.teardown();
+        if (executorService != null) {
+            executorService.shutdown();
+            executorService = null;
+        }
     }
 
     @Override
     public void close() throws IOException {
-        indexSearcher.getIndexReader().close();
+        luceneIndex.close();
     }
 
 
@@ -0,0 +1,39 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The executor an {@code IndexSearcher} searches its segment slices with: none, searching them on the calling thread,
+ * a fixed pool of a thread per core, or a virtual thread per task.
+ * <p>
+ * Virtual threads need Java 21, the build targets 17, so the factory is looked up at run time
+ * and fails on older runtimes.
+ */
+public enum LuceneExecutor {
+    none, fixed, virtual;
+
+    /**
+     * @return a new executor, to be shut down by the caller, or null to search on the calling thread
+     */
+    ExecutorService create() {
+        switch (this) {
+            case none:
+                return null;
+            case fixed:
+                return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            case virtual:
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (NoSuchMethodException e) {
+                    throw new UnsupportedOperationException("Virtual threads need Java 21 or later, running "
+                            + Runtime.version());
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new RuntimeException(e);
+                }
+            default:
+                throw new UnsupportedOperationException("LuceneExecutor: " + this);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.DocIdSetIterator;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where the point id of a Lucene hit is read from: the stored field, which decompresses a block of stored fields
+ * for each hit, the numeric doc values column, or per-segment arrays read from the doc values when the searcher
+ * is opened.
+ */
+public enum LuceneIdSource {
+    stored, docValues, cached;
+
+    @FunctionalInterface
+    interface IdResolver {
+        int getId(int doc) throws IOException;
+    }
+
+    /**
+     * A resolver for the documents of the reader, holding iterators so each searching thread needs its own.
+     */
+    IdResolver newIdResolver(IndexReader indexReader) throws IOException {
+        switch (this) {
+            case stored:
+                StoredFields storedFields = indexReader.storedFields();
+                return doc -> storedFields.document(doc).getField(LuceneIndex.idFieldName).numericValue().intValue();
+            case docValues:
+                return newDocValuesResolver(indexReader.leaves());
+            case cached:
+                return newCachedResolver(indexReader.leaves());
+            default:
+                throw new UnsupportedOperationException("LuceneIdSource: " + this);
+        }
+    }
+
+    private static IdResolver newDocValuesResolver(List<LeafReaderContext> leaves) {
+        NumericDocValues[] values = new NumericDocValues[leaves.size()];
+        return doc -> {
+            int leaf = ReaderUtil.subIndex(doc, leaves);
+            LeafReaderContext context = leaves.get(leaf);
+            int leafDoc = doc - context.docBase;
+            // doc values iterate forwards, hits in a random order need a new iterator when going back
+            if (values[leaf] == null || values[leaf].docID() >= leafDoc) {
+                values[leaf] = DocValues.getNumeric(context.reader(), LuceneIndex.idFieldName);
+            }
+            return values[leaf].advanceExact(leafDoc) ? (int) values[leaf].longValue() : 0;
+        };
+    }
+
+    private static IdResolver newCachedResolver(List<LeafReaderContext> leaves) throws IOException {
+        int[][] ids = new int[leaves.size()][];
+        for (int leaf = 0; leaf < leaves.size(); leaf++) {
+            LeafReaderContext context = leaves.get(leaf);
+            ids[leaf] = new int[context.reader().maxDoc()];
+            NumericDocValues values = DocValues.getNumeric(context.reader(), LuceneIndex.idFieldName);
+            for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+                ids[leaf][doc] = (int) values.longValue();
+            }
+        }
+        return doc -> {
+            int leaf = ReaderUtil.subIndex(doc, leaves);
+            return ids[leaf][doc - leaves.get(leaf).docBase];
+        };
+    }
+}
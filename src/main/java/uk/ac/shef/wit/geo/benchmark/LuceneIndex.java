@@ -0,0 +1,382 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.LatLonPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.sandbox.search.LatLonPointPrototypeQueries;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntToLongFunction;
+import java.util.function.Supplier;
+
+/**
+ * Lucene LatLonPoint index, reusing an index on disk when one with the expected number of documents exists.
+ */
+final class LuceneIndex
+        implements PointIndex, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    static final String fieldName = "location";
+    static final String idFieldName = "id";
+
+    private final IndexSearcher indexSearcher;
+
+    LuceneIndex(IndexSearcher indexSearcher) {
+        this.indexSearcher = indexSearcher;
+    }
+
+    IndexSearcher getIndexSearcher() {
+        return indexSearcher;
+    }
+
+    static LuceneIndex open(LuceneType luceneType, File outputDirectory, String suffix,
+                            int numberOfPoints, Supplier<PointStore> pointsSupplier)
+            throws IOException {
+        return open(luceneType, outputDirectory, suffix, numberOfPoints, pointsSupplier, false, LuceneIndexSort.none);
+    }
+
+    /**
+     * @param forceMerge merge the index to a single segment, rather than the segments left by the writer's merge policy
+     * @param indexSort  the order of the documents within each segment,
+     *                   the suffix must differ for each layout as only the number of documents is checked on reuse
+     */
+    static LuceneIndex open(LuceneType luceneType, File outputDirectory, String suffix,
+                            int numberOfPoints, Supplier<PointStore> pointsSupplier,
+                            boolean forceMerge, LuceneIndexSort indexSort)
+            throws IOException {
+        boolean createIndex = true;
+        Path indexPath = luceneType.getIndexPath(outputDirectory, suffix);
+        if (indexPath != null && Files.exists(indexPath)) {
+            logger.info("Reading Lucene index at {}...", indexPath.toAbsolutePath());
+            int count;
+            boolean hasIdDocValues;
+
+            try (Directory directory = luceneType.getDirectory(outputDirectory, suffix);
+                 IndexReader indexReader = DirectoryReader.open(directory)) {
+                count = indexReader.numDocs();
+                FieldInfo idField = FieldInfos.getMergedFieldInfos(indexReader).fieldInfo(idFieldName);
+                hasIdDocValues = idField != null && idField.getDocValuesType() == DocValuesType.NUMERIC;
+            }
+
+            if (count == 0) {
+                logger.error("Index is empty");
+            } else if (numberOfPoints != count) {
+                logger.error("Index contains incorrect number of documents. Expected {}, found {}",
+                        numberOfPoints, count);
+            } else if (!hasIdDocValues) {
+                logger.error("Index has no {} doc values, it was written by an earlier version", idFieldName);
+            } else {
+                logger.info("Index {} contains {} documents", indexPath, count);
+                createIndex = false;
+            }
+        }
+
+        Directory directory = luceneType.getDirectory(outputDirectory, suffix);
+        if (createIndex) {
+            logger.info("Creating or reading {} points", numberOfPoints);
+            write(directory, pointsSupplier.get(), 1, forceMerge, indexSort);
+        }
+        return new LuceneIndex(new IndexSearcher(DirectoryReader.open(directory)));
+    }
+
+    /**
+     * Builds a new index in the directory, always replacing any existing index.
+     *
+     * @param threads the number of threads adding documents, each adds a contiguous range of the points
+     *                so the index writer can fill a segment per thread
+     */
+    static LuceneIndex build(Directory directory, PointStore points, int threads)
+            throws IOException {
+        write(directory, points, threads, false, LuceneIndexSort.none);
+        return new LuceneIndex(new IndexSearcher(DirectoryReader.open(directory)));
+    }
+
+    private static void write(Directory directory, PointStore points, int threads,
+                              boolean forceMerge, LuceneIndexSort indexSort)
+            throws IOException {
+        IndexWriterConfig iwConfig = new IndexWriterConfig();
+        iwConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        IntToLongFunction curveKey = null;
+        if (indexSort != LuceneIndexSort.none) {
+            iwConfig.setIndexSort(indexSort.getSort());
+            curveKey = getCurveKey(points, indexSort);
+        }
+        final IntToLongFunction documentCurveKey = curveKey;
+        try (IndexWriter indexWriter = new IndexWriter(directory, iwConfig)) {
+            logger.info("Indexing points");
+            if (threads <= 1) {
+                try (ProgressBar progressBar = new ProgressBar("Documents:", points.size())) {
+                    for (int i = 0; i < points.size(); i++) {
+                        progressBar.step();
+                        indexWriter.addDocument(createDocument(points, i, documentCurveKey));
+                    }
+                }
+            } else {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    List<Future<?>> futures = new ArrayList<>(threads);
+                    for (int t = 0; t < threads; t++) {
+                        int from = (int) ((long) points.size() * t / threads);
+                        int to = (int) ((long) points.size() * (t + 1) / threads);
+                        futures.add(executor.submit(() -> {
+                            for (int i = from; i < to; i++) {
+                                indexWriter.addDocument(createDocument(points, i, documentCurveKey));
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                } finally {
+                    executor.shutdown();
+                }
+            }
+            if (forceMerge) {
+                logger.info("Merging to a single segment");
+                indexWriter.forceMerge(1);
+            }
+            indexWriter.commit();
+        }
+    }
+
+    private static IntToLongFunction getCurveKey(PointStore points, LuceneIndexSort indexSort) {
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < points.size(); i++) {
+            minLat = Math.min(minLat, points.getLat(i));
+            maxLat = Math.max(maxLat, points.getLat(i));
+            minLon = Math.min(minLon, points.getLon(i));
+            maxLon = Math.max(maxLon, points.getLon(i));
+        }
+        final double fMinLat = minLat, fMaxLat = maxLat, fMinLon = minLon, fMaxLon = maxLon;
+        return i -> indexSort.key(
+                SpaceFillingCurve.scale(points.getLon(i), fMinLon, fMaxLon),
+                SpaceFillingCurve.scale(points.getLat(i), fMinLat, fMaxLat));
+    }
+
+    static Document createDocument(PointStore points, int i, IntToLongFunction curveKey) {
+        Document doc = new Document();
+        if (curveKey != null) {
+            doc.add(new NumericDocValuesField(LuceneIndexSort.fieldName, curveKey.applyAsLong(i)));
+        }
+        addPoint(doc, PointStore.getId(i), points.getLat(i), points.getLon(i));
+        return doc;
+    }
+
+    private static void addPoint(Document doc, int id, double lat, double lon) {
+        doc.add(new StoredField(idFieldName, id));
+        doc.add(new NumericDocValuesField(idFieldName, id));
+        doc.add(new LatLonPoint(fieldName, lat, lon));
+        doc.add(new LatLonDocValuesField(fieldName, lat, lon));
+    }
+
+    /**
+     * Writes a new index in the directory, always replacing any existing index, a document per point as the
+     * chunks arrive, from one thread. The index is committed and opened when every point has been added.
+     */
+    static ChunkedIngest.Loader loader(Directory directory) throws IOException {
+        IndexWriterConfig iwConfig = new IndexWriterConfig();
+        iwConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        IndexWriter indexWriter = new IndexWriter(directory, iwConfig);
+        return new ChunkedIngest.Loader() {
+            @Override
+            public void add(int offset, double[] lats, double[] lons, int length) throws IOException {
+                try {
+                    for (int i = 0; i < length; i++) {
+                        Document doc = new Document();
+                        addPoint(doc, PointStore.getId(offset + i), lats[i], lons[i]);
+                        indexWriter.addDocument(doc);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    indexWriter.rollback();
+                    throw e;
+                }
+            }
+
+            @Override
+            public PointIndex finish() throws IOException {
+                try (indexWriter) {
+                    indexWriter.commit();
+                }
+                return new LuceneIndex(new IndexSearcher(DirectoryReader.open(directory)));
+            }
+        };
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        final StoredFields storedFields;
+        try {
+            storedFields = indexSearcher.storedFields();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return (lat, lon, radiusMeters, result) -> {
+            try {
+                TopFieldDocs topDocs = LatLonPointPrototypeQueries.nearest(indexSearcher, fieldName, lat, lon, 1);
+                if (topDocs.scoreDocs.length == 0) {
+                    return result.clear();
+                }
+                FieldDoc fieldDoc = (FieldDoc) topDocs.scoreDocs[0];
+                double distance = (Double) fieldDoc.fields[0];
+                if (distance >= radiusMeters) {
+                    return result.clear();
+                }
+                Document doc = storedFields.document(fieldDoc.doc);
+                return result.set(doc.getField(idFieldName).numericValue().intValue(), distance);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        final StoredFields storedFields;
+        try {
+            storedFields = indexSearcher.storedFields();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return (lat, lon, radiusMeters, result) -> {
+            result.clear();
+            try {
+                TopFieldDocs topDocs = LatLonPointPrototypeQueries.nearest(indexSearcher, fieldName, lat, lon, result.getK());
+                for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                    double distance = (Double) ((FieldDoc) scoreDoc).fields[0];
+                    if (distance < radiusMeters) {
+                        Document doc = storedFields.document(scoreDoc.doc);
+                        result.offer(doc.getField(idFieldName).numericValue().intValue(), distance);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return result.sort();
+        };
+    }
+
+    /**
+     * Adds the id of each hit to the result, read from the id doc values of its segment in document order.
+     */
+    private static final class IdCollector
+            extends SimpleCollector {
+
+        private PointIds result;
+        private NumericDocValues ids;
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            ids = DocValues.getNumeric(context.reader(), idFieldName);
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (ids.advanceExact(doc)) {
+                result.add((int) ids.longValue());
+            }
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+    }
+
+    /**
+     * Lucene's own distance and box queries on the encoded points, so points within a centimetre of the edge may
+     * fall on the other side of it than in the engines that test the points as doubles. Counts are the searcher's,
+     * which for a box query counts the cells of the BKD tree inside the box without visiting their points.
+     */
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        IdCollector collector = new IdCollector();
+        return new RangeSearcher() {
+            @Override
+            public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+                return search(LatLonPoint.newDistanceQuery(fieldName, lat, lon, radiusMeters), result);
+            }
+
+            @Override
+            public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+                return search(LatLonPoint.newBoxQuery(fieldName, minLat, maxLat, minLon, maxLon), result);
+            }
+
+            private int search(Query query, PointIds result) {
+                result.clear();
+                collector.result = result;
+                try {
+                    indexSearcher.search(query, collector);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return result.size();
+            }
+
+            @Override
+            public int countWithinDistance(double lat, double lon, double radiusMeters) {
+                return count(LatLonPoint.newDistanceQuery(fieldName, lat, lon, radiusMeters));
+            }
+
+            @Override
+            public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+                return count(LatLonPoint.newBoxQuery(fieldName, minLat, maxLat, minLon, maxLon));
+            }
+
+            private int count(Query query) {
+                try {
+                    return indexSearcher.count(query);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        indexSearcher.getIndexReader().close();
+    }
+}
@@ -0,0 +1,32 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+/**
+ * The order of the documents within each Lucene segment: as added, or sorted along a space-filling curve
+ * over the bounds of the points so that spatially close points have close document ids.
+ */
+public enum LuceneIndexSort {
+    none, hilbert, morton;
+
+    static final String fieldName = "curve";
+
+    long key(int x, int y) {
+        switch (this) {
+            case hilbert:
+                return SpaceFillingCurve.hilbert(x, y);
+            case morton:
+                return SpaceFillingCurve.morton(x, y);
+            default:
+                throw new UnsupportedOperationException("LuceneIndexSort: " + this);
+        }
+    }
+
+    /**
+     * The index sort for the writer, or null if the documents are not sorted.
+     */
+    Sort getSort() {
+        return this == none ? null : new Sort(new SortField(fieldName, SortField.Type.LONG));
+    }
+}
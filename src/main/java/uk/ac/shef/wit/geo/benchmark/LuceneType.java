@@ -0,0 +1,46 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The Lucene directory implementation: heap {@link ByteBuffersDirectory}, memory-mapped or NIO file reads.
+ */
+public enum LuceneType {
+    ram, mmap, niofs;
+
+    public Path getIndexPath(File outputDirectory, String suffix) {
+        switch (this) {
+            case ram:
+                return null;
+            case mmap:
+            case niofs:
+                return Paths.get(outputDirectory.getAbsolutePath(), "lucene-" + suffix);
+            default:
+                throw new UnsupportedOperationException("LuceneType: " + this);
+        }
+    }
+
+    public Directory getDirectory(File outputDirectory, String suffix)
+            throws IOException {
+        switch (this) {
+            case ram:
+                return new ByteBuffersDirectory();
+            case mmap:
+                //noinspection ConstantConditions
+                return new MMapDirectory(getIndexPath(outputDirectory, suffix));
+            case niofs:
+                //noinspection ConstantConditions
+                return NIOFSDirectory.open(getIndexPath(outputDirectory, suffix));
+            default:
+                throw new UnsupportedOperationException("LuceneType: " + this);
+        }
+    }
+}
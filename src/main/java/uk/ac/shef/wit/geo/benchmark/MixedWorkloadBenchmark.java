@@ -0,0 +1,287 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.ListStatistics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queries while a writer removes points and adds them back, against the engines that can be written while they
+ * are searched, see {@link IndexType#createMutable}.
+ * <p>
+ * The query and update threads form one JMH group, three query threads and one writer unless changed with
+ * {@code -tg}. The writer paces itself to {@link #updatesPerSecond}, the update ratio is that against the query
+ * throughput, and refreshes the engines that need it every {@link #refreshMillis}. Each operation of a query thread
+ * is one lookup, cycling through the query points, and both the throughput and the sampled latency are measured.
+ * <p>
+ * Update lag: after a write the writer leaves a probe, the point written and when, unless one is outstanding.
+ * Query threads look at it at most once a millisecond, searching at the point's location, and the first to see
+ * the point added or removed records the time since the write.
+ */
+@State(Scope.Group)
+public class MixedWorkloadBenchmark
+        extends AbstractBenchmark {
+
+    // probes not seen within this time are given up
+    private static final long probeTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private static final long probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    // points removed and not yet added back, at most
+    private static final int maxRemoved = 1000;
+
+    @Param({"jsi", "lucene", "geotools", "jeo"})
+    IndexType indexType;
+
+    @Param({"100", "1000"})
+    int updatesPerSecond;
+
+    @Param({"100"})
+    int refreshMillis;
+
+    private PointStore points;
+    private MutablePointIndex index;
+    private final AtomicReference<Probe> probe = new AtomicReference<>();
+    private final ListStatistics lagMillis = new ListStatistics();
+    private long writes;
+    private long timedOutProbes;
+
+    /**
+     * A point the writer added or removed and the time it returned.
+     */
+    private static final class Probe {
+
+        final int index;
+        final int id;
+        final boolean added;
+        final double lat;
+        final double lon;
+        final long nanos;
+
+        Probe(int index, boolean added, double lat, double lon, long nanos) {
+            this.index = index;
+            this.id = PointStore.getId(index);
+            this.added = added;
+            this.lat = lat;
+            this.lon = lon;
+            this.nanos = nanos;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class QueryThread {
+
+        PointIndex.Searcher searcher;
+        final Neighbour neighbour = new Neighbour();
+        PointStore queryPoints;
+        int next;
+        long nextProbeNanos;
+
+        @Setup(Level.Trial)
+        public void setup(MixedWorkloadBenchmark benchmark) {
+            searcher = benchmark.index.newSearcher();
+            queryPoints = benchmark.getQueryPoints();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class UpdateThread {
+
+        final SplittableRandom random = new SplittableRandom(42);
+        final BitSet removed = new BitSet();
+        // the positions of the removed points in the order they were removed, the oldest is added back first
+        final int[] removedQueue = new int[maxRemoved];
+        int removedHead;
+        int removedCount;
+        long nextWriteNanos;
+        long nextRefreshNanos;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = getIndexPoints();
+        long time = System.currentTimeMillis();
+        try {
+            index = indexType.createMutable(points, getOutputDirectory(), getIndexName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.format("%n%s %s: built in %dms%n", getClass().getSimpleName(), indexType,
+                System.currentTimeMillis() - time);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1, time = 5)
+    @Measurement(iterations = 3, time = 5)
+    public int query(QueryThread thread) {
+        long now = System.nanoTime();
+        if (now >= thread.nextProbeNanos) {
+            thread.nextProbeNanos = now + probeIntervalNanos;
+            checkProbe(thread);
+        }
+        int q = thread.next;
+        thread.next = q + 1 == thread.queryPoints.size() ? 0 : q + 1;
+        thread.searcher.nearest(thread.queryPoints.getLat(q), thread.queryPoints.getLon(q),
+                queryRadiusMetres, thread.neighbour);
+        return thread.neighbour.id;
+    }
+
+    private void checkProbe(QueryThread thread) {
+        Probe written = probe.get();
+        if (written == null) {
+            return;
+        }
+        thread.searcher.nearest(written.lat, written.lon, 1, thread.neighbour);
+        boolean seen = written.added == (thread.neighbour.id == written.id);
+        if (seen && probe.compareAndSet(written, null)) {
+            double lag = (System.nanoTime() - written.nanos) / 1e6;
+            synchronized (lagMillis) {
+                lagMillis.addValue(lag);
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1, time = 5)
+    @Measurement(iterations = 3, time = 5)
+    public void update(UpdateThread thread) throws IOException {
+        long now = System.nanoTime();
+        if (thread.nextWriteNanos > now) {
+            LockSupport.parkNanos(thread.nextWriteNanos - now);
+        } else if (now - thread.nextWriteNanos > TimeUnit.SECONDS.toNanos(1)) {
+            // too far behind to catch up, start the schedule again rather than write in a burst
+            thread.nextWriteNanos = now;
+        }
+        thread.nextWriteNanos += TimeUnit.SECONDS.toNanos(1) / updatesPerSecond;
+
+        // the probed point is not written again until the probe is seen, or given up
+        Probe pending = probe.get();
+        if (pending != null && (now - pending.nanos > probeTimeoutNanos
+                || thread.removedCount == maxRemoved && thread.removedQueue[thread.removedHead] == pending.index)) {
+            if (probe.compareAndSet(pending, null)) {
+                timedOutProbes++;
+            }
+            pending = probe.get();
+        }
+        int pendingIndex = pending == null ? -1 : pending.index;
+
+        int i;
+        boolean added;
+        boolean addBack = thread.removedCount == maxRemoved || thread.removedCount > 0 && thread.random.nextBoolean();
+        if (!addBack || thread.removedQueue[thread.removedHead] == pendingIndex) {
+            do {
+                i = thread.random.nextInt(points.size());
+            } while (thread.removed.get(i) || i == pendingIndex);
+            index.remove(PointStore.getId(i));
+            thread.removed.set(i);
+            thread.removedQueue[(thread.removedHead + thread.removedCount++) % maxRemoved] = i;
+            added = false;
+        } else {
+            i = thread.removedQueue[thread.removedHead];
+            thread.removedHead = (thread.removedHead + 1) % maxRemoved;
+            thread.removedCount--;
+            index.add(PointStore.getId(i));
+            thread.removed.clear(i);
+            added = true;
+        }
+        writes++;
+
+        now = System.nanoTime();
+        if (pending == null) {
+            probe.compareAndSet(null, new Probe(i, added, points.getLat(i), points.getLon(i), now));
+        }
+        if (now >= thread.nextRefreshNanos) {
+            index.refresh();
+            thread.nextRefreshNanos = now + TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown(BenchmarkParams params) throws IOException {
+        synchronized (lagMillis) {
+            System.out.format("%n%s %s, %d updates/s, threads %s: %d writes, update lag over %d probes " +
+                            "(%d timed out) mean %.1fms, p50 %.1fms, p99 %.1fms, max %.1fms%n",
+                    MixedWorkloadBenchmark.class.getSimpleName(), indexType, updatesPerSecond,
+                    Arrays.toString(params.getThreadGroups()), writes,
+                    lagMillis.getN(), timedOutProbes,
+                    lagMillis.getN() == 0 ? Double.NaN : lagMillis.getMean(),
+                    lagMillis.getN() == 0 ? Double.NaN : lagMillis.getPercentile(50),
+                    lagMillis.getN() == 0 ? Double.NaN : lagMillis.getPercentile(99),
+                    lagMillis.getN() == 0 ? Double.NaN : lagMillis.getMax());
+        }
+        if (index instanceof Closeable) {
+            ((Closeable) index).close();
+        }
+    }
+
+    /**
+     * Runs the benchmark and prints the query throughput and latency of each engine against the update rate,
+     * the update lag is printed by each trial.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MixedWorkloadBenchmark.class.getSimpleName())
+                .param("numberOfIndexPoints", "100000", "1000000")
+                .param("queryRadiusMetres", "10000")
+                .param("distribution", "uniform")
+                .param("queryWorkload", "matching")
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        System.out.format("%nengine\tpoints\tupdates/s\tmode\tqueries\tp50 us\tp99 us%n");
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            Result<?> query = runResult.getSecondaryResults().get("query");
+            if (query == null) {
+                continue;
+            }
+            boolean sampled = params.getMode() == Mode.SampleTime;
+            System.out.format("%s\t%s\t%s\t%s\t%s\t%s\t%s%n",
+                    params.getParam("indexType"),
+                    params.getParam("numberOfIndexPoints"),
+                    params.getParam("updatesPerSecond"),
+                    params.getMode().shortLabel(),
+                    sampled ? "" : String.format("%.0f/s", query.getScore() * 1000),
+                    sampled ? String.format("%.1f", query.getStatistics().getPercentile(50) * 1000) : "",
+                    sampled ? String.format("%.1f", query.getStatistics().getPercentile(99) * 1000) : "");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.data.collection.SpatialIndexFeatureCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * The Geotools {@link SpatialIndexFeatureCollection} written with {@code addAll} and {@code remove} while it is
+ * searched. Removing a feature changes the JTS STRtree underneath in place, so writes hold the write lock and
+ * searches the read lock.
+ * <p>
+ * The STRtree is packed when it is first searched and cannot be inserted into after that. If {@code addAll} fails
+ * for that reason, added features wait for {@link #refresh()}, which builds a new collection from every point
+ * present and swaps it in, so their lag is the refresh interval plus the time to build the collection.
+ */
+final class MutableGeotoolsIndex
+        implements MutablePointIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final SimpleFeatureType pointFeature;
+    // the feature of each point, the same instance is removed as was added
+    private final SimpleFeature[] features;
+    private final BitSet removed = new BitSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile GeotoolsIndex index;
+    private boolean rebuildToAdd;
+    private boolean pendingAdds;
+
+    MutableGeotoolsIndex(PointStore points) {
+        pointFeature = GeotoolsIndex.createPointFeatureType();
+        features = new SimpleFeature[points.size()];
+        IntStream.range(0, points.size()).parallel()
+                .forEach(i -> features[i] = GeotoolsIndex.createPointFeature(pointFeature, points, i));
+        index = new GeotoolsIndex(createCollection());
+    }
+
+    private SpatialIndexFeatureCollection createCollection() {
+        List<SimpleFeature> present = new ArrayList<>(features.length - removed.cardinality());
+        for (int i = 0; i < features.length; i++) {
+            if (features[i] != null && !removed.get(i)) {
+                present.add(features[i]);
+            }
+        }
+        SpatialIndexFeatureCollection collection = new SpatialIndexFeatureCollection(pointFeature);
+        collection.addAll(present);
+        return collection;
+    }
+
+    @Override
+    public synchronized void add(int id) {
+        int i = PointStore.getIndex(id);
+        removed.clear(i);
+        if (rebuildToAdd) {
+            pendingAdds = true;
+            return;
+        }
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            index.getCollection().addAll(Collections.singletonList(features[i]));
+        } catch (RuntimeException e) {
+            logger.info("Cannot add to the Geotools collection once it is searched, adding by rebuilding it: {}",
+                    e.getMessage());
+            rebuildToAdd = true;
+            pendingAdds = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public synchronized void remove(int id) {
+        int i = PointStore.getIndex(id);
+        removed.set(i);
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            index.getCollection().remove(features[i]);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public synchronized void refresh() {
+        if (!pendingAdds) {
+            return;
+        }
+        GeotoolsIndex rebuilt = new GeotoolsIndex(createCollection());
+        // one search packs the new tree before it is swapped in, rather than in the first reader's search
+        rebuilt.newSearcher().nearest(0, 0, 1, new Neighbour());
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            index = rebuilt;
+        } finally {
+            writeLock.unlock();
+        }
+        pendingAdds = false;
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        Lock readLock = lock.readLock();
+        return new Searcher() {
+            // the searcher of the collection last searched, replaced when a rebuilt collection is swapped in
+            private GeotoolsIndex searched;
+            private Searcher searcher;
+
+            @Override
+            public boolean nearest(double lat, double lon, double radiusMeters, Neighbour result) {
+                readLock.lock();
+                try {
+                    if (searched != index) {
+                        searched = index;
+                        searcher = searched.newSearcher();
+                    }
+                    return searcher.nearest(lat, lon, radiusMeters, result);
+                } finally {
+                    readLock.unlock();
+                }
+            }
+        };
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        Lock readLock = lock.readLock();
+        return new KNearestSearcher() {
+            private GeotoolsIndex searched;
+            private KNearestSearcher searcher;
+
+            @Override
+            public int nearest(double lat, double lon, double radiusMeters, Neighbours result) {
+                readLock.lock();
+                try {
+                    if (searched != index) {
+                        searched = index;
+                        searcher = searched.newKNearestSearcher();
+                    }
+                    return searcher.nearest(lat, lon, radiusMeters, result);
+                } finally {
+                    readLock.unlock();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,84 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import com.eatthepath.jvptree.VPTree;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The jvptree vantage-point tree written with {@link VPTree#add} and {@link VPTree#remove} while it is searched.
+ * A point added to a full node splits it, re-partitioning that subtree about a new vantage point, so writes hold
+ * the write lock and searches, which only read the tree, share the read lock.
+ */
+final class MutableJeoIndex
+        implements MutablePointIndex {
+
+    private final PointStore points;
+    private final JeoIndex index;
+    private final VPTree<JeoIndex.Point, JeoIndex.LatLonPoint> tree;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    MutableJeoIndex(PointStore points) {
+        this.points = points;
+        this.index = new JeoIndex(points);
+        this.tree = index.getVPTree();
+    }
+
+    private JeoIndex.LatLonPoint getPoint(int id) {
+        int i = PointStore.getIndex(id);
+        return new JeoIndex.LatLonPoint(id, points.getLat(i), points.getLon(i));
+    }
+
+    @Override
+    public void add(int id) {
+        JeoIndex.LatLonPoint point = getPoint(id);
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            tree.add(point);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(int id) {
+        JeoIndex.LatLonPoint point = getPoint(id);
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            tree.remove(point);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        Searcher searcher = index.newSearcher();
+        Lock readLock = lock.readLock();
+        return (lat, lon, radiusMeters, result) -> {
+            readLock.lock();
+            try {
+                return searcher.nearest(lat, lon, radiusMeters, result);
+            } finally {
+                readLock.unlock();
+            }
+        };
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        KNearestSearcher searcher = index.newKNearestSearcher();
+        Lock readLock = lock.readLock();
+        return (lat, lon, radiusMeters, result) -> {
+            readLock.lock();
+            try {
+                return searcher.nearest(lat, lon, radiusMeters, result);
+            } finally {
+                readLock.unlock();
+            }
+        };
+    }
+}
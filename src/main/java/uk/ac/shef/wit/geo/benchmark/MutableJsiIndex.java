@@ -0,0 +1,67 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.rtree.RTree;
+
+/**
+ * The JSI R-tree written with {@link RTree#add} and {@link RTree#delete} while it is searched.
+ * The tree is not thread-safe, it keeps the working state of searches as well as writes in its own fields,
+ * so every search and write holds the same lock.
+ */
+final class MutableJsiIndex
+        implements MutablePointIndex {
+
+    private final PointStore points;
+    private final JsiIndex index;
+    private final RTree rtree;
+    private final Object lock = new Object();
+
+    MutableJsiIndex(JsiIndex index, PointStore points) {
+        this.points = points;
+        this.index = index;
+        this.rtree = index.getRTree();
+    }
+
+    private Rectangle getRectangle(int id) {
+        int i = PointStore.getIndex(id);
+        float lat = (float) points.getLat(i);
+        float lon = (float) points.getLon(i);
+        return new Rectangle(lat, lon, lat, lon);
+    }
+
+    @Override
+    public void add(int id) {
+        Rectangle rectangle = getRectangle(id);
+        synchronized (lock) {
+            rtree.add(rectangle, id);
+        }
+    }
+
+    @Override
+    public void remove(int id) {
+        Rectangle rectangle = getRectangle(id);
+        synchronized (lock) {
+            rtree.delete(rectangle, id);
+        }
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        Searcher searcher = index.newSearcher();
+        return (lat, lon, radiusMeters, result) -> {
+            synchronized (lock) {
+                return searcher.nearest(lat, lon, radiusMeters, result);
+            }
+        };
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        KNearestSearcher searcher = index.newKNearestSearcher();
+        return (lat, lon, radiusMeters, result) -> {
+            synchronized (lock) {
+                return searcher.nearest(lat, lon, radiusMeters, result);
+            }
+        };
+    }
+}
@@ -0,0 +1,157 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.stream.IntStream;
+
+/**
+ * A Lucene index written while it is searched: an {@link IndexWriter} is kept open over it and each
+ * {@link #refresh()} opens a near-real-time reader with {@link DirectoryReader#openIfChanged(DirectoryReader,
+ * IndexWriter)}, so the writes are only seen by the searchers after the next refresh.
+ * <p>
+ * Each search holds a reference to the reader it started with, a replaced reader is closed when the last
+ * search using it finishes.
+ */
+final class MutableLuceneIndex
+        implements MutablePointIndex, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final PointStore points;
+    private final IndexWriter indexWriter;
+    private volatile LuceneIndex index;
+
+    /**
+     * Writes a new index of the points to the directory, replacing any index there.
+     */
+    MutableLuceneIndex(Directory directory, PointStore points) throws IOException {
+        this.points = points;
+        IndexWriterConfig iwConfig = new IndexWriterConfig();
+        iwConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        indexWriter = new IndexWriter(directory, iwConfig);
+        logger.info("Indexing {} points", points.size());
+        IntStream.range(0, points.size()).parallel().forEach(i -> {
+            try {
+                indexWriter.addDocument(createDocument(i));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        indexWriter.commit();
+        index = new LuceneIndex(new IndexSearcher(DirectoryReader.open(indexWriter)));
+    }
+
+    private Document createDocument(int i) {
+        Document doc = LuceneIndex.createDocument(points, i, null);
+        // the id is indexed as a point as well, so a delete finds the document without scanning the doc values
+        doc.add(new IntPoint(LuceneIndex.idFieldName, PointStore.getId(i)));
+        return doc;
+    }
+
+    @Override
+    public void add(int id) throws IOException {
+        indexWriter.addDocument(createDocument(PointStore.getIndex(id)));
+    }
+
+    @Override
+    public void remove(int id) throws IOException {
+        indexWriter.deleteDocuments(IntPoint.newExactQuery(LuceneIndex.idFieldName, id));
+    }
+
+    @Override
+    public synchronized void refresh() throws IOException {
+        DirectoryReader reader = (DirectoryReader) index.getIndexSearcher().getIndexReader();
+        DirectoryReader changed = DirectoryReader.openIfChanged(reader, indexWriter);
+        if (changed != null) {
+            index = new LuceneIndex(new IndexSearcher(changed));
+            reader.decRef();
+        }
+    }
+
+    /**
+     * The current index, with a reference to its reader that must be released.
+     */
+    private LuceneIndex acquire() {
+        while (true) {
+            LuceneIndex current = index;
+            if (current.getIndexSearcher().getIndexReader().tryIncRef()) {
+                return current;
+            }
+        }
+    }
+
+    private static void release(LuceneIndex index) {
+        try {
+            index.getIndexSearcher().getIndexReader().decRef();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        return new Searcher() {
+            // the searcher of the reader last searched, replaced when a refresh opens a new reader
+            private LuceneIndex searched;
+            private Searcher searcher;
+
+            @Override
+            public boolean nearest(double lat, double lon, double radiusMeters, Neighbour result) {
+                LuceneIndex current = acquire();
+                try {
+                    if (searched != current) {
+                        searched = current;
+                        searcher = current.newSearcher();
+                    }
+                    return searcher.nearest(lat, lon, radiusMeters, result);
+                } finally {
+                    release(current);
+                }
+            }
+        };
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        return new KNearestSearcher() {
+            private LuceneIndex searched;
+            private KNearestSearcher searcher;
+
+            @Override
+            public int nearest(double lat, double lon, double radiusMeters, Neighbours result) {
+                LuceneIndex current = acquire();
+                try {
+                    if (searched != current) {
+                        searched = current;
+                        searcher = current.newKNearestSearcher();
+                    }
+                    return searcher.nearest(lat, lon, radiusMeters, result);
+                } finally {
+                    release(current);
+                }
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IndexReader reader = index.getIndexSearcher().getIndexReader();
+        try {
+            reader.decRef();
+        } finally {
+            indexWriter.close();
+        }
+    }
+}
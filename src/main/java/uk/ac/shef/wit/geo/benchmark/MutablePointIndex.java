@@ -0,0 +1,24 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.io.IOException;
+
+/**
+ * A {@link PointIndex} whose points can be removed and added back while it is being searched,
+ * each point identified by its id in the {@link PointStore} the index was built from.
+ * <p>
+ * Writes come from one thread at a time. Some engines only show them to the searchers after {@link #refresh()},
+ * which the writing thread calls periodically.
+ */
+interface MutablePointIndex
+        extends PointIndex {
+
+    void add(int id) throws IOException;
+
+    void remove(int id) throws IOException;
+
+    /**
+     * Makes the writes so far visible to the searchers, for the engines that do not show them at once.
+     */
+    default void refresh() throws IOException {
+    }
+}
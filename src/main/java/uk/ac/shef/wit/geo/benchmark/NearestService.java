@@ -0,0 +1,187 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest lookups of any {@link PointIndex} served in the process, as a request handler would, either called
+ * directly with {@link #submit} or over HTTP on the loopback interface after {@link #startHttp()}.
+ * Every request is run on the executor of the {@link Dispatch}, which rejects requests it has no room for.
+ * <p>
+ * Searchers are not thread-safe, and a virtual thread per request would create one per request, so they are
+ * pooled: a request takes a free searcher or creates one, and returns it when done.
+ */
+final class NearestService
+        implements Closeable {
+
+    private static final String path = "/nearest";
+
+    /**
+     * How requests are run.
+     * <ul>
+     * <li>virtual - a new virtual thread per request, needs Java 21 or later</li>
+     * <li>platform - a fixed pool of a thread per core with a bounded queue, requests arriving to a full queue
+     * are rejected</li>
+     * </ul>
+     */
+    enum Dispatch {
+        virtual, platform;
+
+        ExecutorService newExecutor(int queueCapacity) {
+            if (this == virtual) {
+                // looked up by name as the project is compiled for Java 17, which has no virtual threads
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                            .invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new UnsupportedOperationException(
+                            "Virtual threads need Java 21 or later, running on " + Runtime.version());
+                }
+            }
+            int threads = Runtime.getRuntime().availableProcessors();
+            return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity));
+        }
+    }
+
+    /**
+     * Told of the outcome of a request, on the thread that ran it.
+     */
+    interface Completion {
+
+        void completed(boolean found);
+
+        void failed(Throwable e);
+    }
+
+    private static final class Lookup {
+
+        final PointIndex.Searcher searcher;
+        final Neighbour neighbour = new Neighbour();
+
+        Lookup(PointIndex.Searcher searcher) {
+            this.searcher = searcher;
+        }
+    }
+
+    private final PointIndex index;
+    private final double radiusMeters;
+    private final ExecutorService executor;
+    private final Queue<Lookup> lookups = new ConcurrentLinkedQueue<>();
+    private HttpServer server;
+
+    NearestService(PointIndex index, double radiusMeters, Dispatch dispatch, int queueCapacity) {
+        this.index = index;
+        this.radiusMeters = radiusMeters;
+        this.executor = dispatch.newExecutor(queueCapacity);
+    }
+
+    private Neighbour nearest(double lat, double lon) {
+        Lookup lookup = lookups.poll();
+        if (lookup == null) {
+            lookup = new Lookup(index.newSearcher());
+        }
+        try {
+            lookup.searcher.nearest(lat, lon, radiusMeters, lookup.neighbour);
+            // a copy, as the pooled neighbour is reused as soon as the lookup is returned
+            Neighbour result = new Neighbour();
+            result.set(lookup.neighbour.id, lookup.neighbour.distance);
+            return result;
+        } finally {
+            lookups.offer(lookup);
+        }
+    }
+
+    /**
+     * Runs the lookup on the executor.
+     *
+     * @throws RejectedExecutionException if the executor has no room for the request
+     */
+    void submit(double lat, double lon, Completion completion) {
+        executor.execute(() -> {
+            boolean found;
+            try {
+                found = nearest(lat, lon).id != 0;
+            } catch (RuntimeException e) {
+                completion.failed(e);
+                return;
+            }
+            completion.completed(found);
+        });
+    }
+
+    /**
+     * Serves {@code GET /nearest?lat=<lat>&lon=<lon>} on an ephemeral loopback port. The response is the id and
+     * distance of the nearest point, separated by a tab, or 503 when the executor rejects the request.
+     * The server thread only parses the request, the lookup and response are run on the executor.
+     *
+     * @return the URI of the lookups, without the query
+     */
+    URI startHttp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(path, exchange -> {
+            double lat;
+            double lon;
+            try {
+                String[] parameters = exchange.getRequestURI().getRawQuery().split("&");
+                lat = Double.parseDouble(parameters[0].substring("lat=".length()));
+                lon = Double.parseDouble(parameters[1].substring("lon=".length()));
+            } catch (RuntimeException e) {
+                respond(exchange, 400, e.toString());
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    Neighbour neighbour;
+                    try {
+                        neighbour = nearest(lat, lon);
+                    } catch (RuntimeException e) {
+                        respond(exchange, 500, e.toString());
+                        return;
+                    }
+                    respond(exchange, 200, neighbour.id + "\t" + neighbour.distance);
+                });
+            } catch (RejectedExecutionException e) {
+                respond(exchange, 503, "busy");
+            }
+        });
+        server.start();
+        InetSocketAddress address = server.getAddress();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + path);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(status, bytes.length);
+            out.write(bytes);
+        } catch (IOException e) {
+            // the client has gone, there is no one to tell
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,22 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+/**
+ * Mutable nearest neighbour result, reused between queries.
+ */
+final class Neighbour {
+
+    int id;
+    double distance = -1;
+
+    boolean set(int id, double distance) {
+        this.id = id;
+        this.distance = distance;
+        return true;
+    }
+
+    boolean clear() {
+        id = 0;
+        distance = -1;
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+/**
+ * Mutable k nearest neighbours result, reused between queries.
+ * <p>
+ * While searching it is a primitive binary max-heap of at most k (distance, id) pairs, so the furthest of the
+ * nearest points so far is replaced in O(log k) and {@link #bound()} gives the distance a point must beat.
+ * {@link #sort()} then puts the points in ascending order of distance.
+ */
+final class Neighbours {
+
+    private final int[] ids;
+    private final double[] distances;
+    private int size;
+
+    Neighbours(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        ids = new int[k];
+        distances = new double[k];
+    }
+
+    int getK() {
+        return ids.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * The distance a point must be closer than to be one of the k nearest, infinite until there are k points.
+     */
+    double bound() {
+        return size < ids.length ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Adds the point if it is closer than the furthest of the k nearest so far.
+     */
+    void offer(int id, double distance) {
+        if (size < ids.length) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distance) {
+                    break;
+                }
+                distances[i] = distances[parent];
+                ids[i] = ids[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            ids[i] = id;
+        } else if (distance < distances[0]) {
+            siftDown(id, distance, size);
+        }
+    }
+
+    private void siftDown(int id, double distance, int heapSize) {
+        int i = 0;
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && distances[right] > distances[child]) {
+                child = right;
+            }
+            if (distance >= distances[child]) {
+                break;
+            }
+            distances[i] = distances[child];
+            ids[i] = ids[child];
+            i = child;
+        }
+        distances[i] = distance;
+        ids[i] = id;
+    }
+
+    /**
+     * Sorts the points into ascending order of distance, after which no more points can be offered until cleared.
+     *
+     * @return the number of points
+     */
+    int sort() {
+        for (int end = size - 1; end > 0; end--) {
+            int id = ids[end];
+            double distance = distances[end];
+            ids[end] = ids[0];
+            distances[end] = distances[0];
+            siftDown(id, distance, end);
+        }
+        return size;
+    }
+
+    int getId(int i) {
+        return ids[i];
+    }
+
+    double getDistance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * Replaces a sorted point, for engines that search on an internal position or a distance proxy
+     * and convert once at the end, the order must not change.
+     */
+    void set(int i, int id, double distance) {
+        ids[i] = id;
+        distances[i] = distance;
+    }
+}
@@ -0,0 +1,92 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Primitive binary min-heap of (distance, node) pairs used for best-first searches.
+ * A queue is reused between searches so it grows to the largest size needed and then stops allocating,
+ * it is not thread-safe so each searching thread needs its own.
+ */
+final class NodeQueue {
+
+    private double[] distances;
+    private int[] nodes;
+    private int size;
+
+    NodeQueue() {
+        this(64);
+    }
+
+    NodeQueue(int capacity) {
+        distances = new double[capacity];
+        nodes = new int[capacity];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void push(double distance, int node) {
+        if (size == distances.length) {
+            distances = Arrays.copyOf(distances, size * 2);
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (distances[parent] <= distance) {
+                break;
+            }
+            distances[i] = distances[parent];
+            nodes[i] = nodes[parent];
+            i = parent;
+        }
+        distances[i] = distance;
+        nodes[i] = node;
+    }
+
+    double peekDistance() {
+        return distances[0];
+    }
+
+    int peekNode() {
+        return nodes[0];
+    }
+
+    /**
+     * Removes the head of the queue, read it first with {@link #peekDistance()} and {@link #peekNode()}.
+     */
+    void pop() {
+        size--;
+        if (size == 0) {
+            return;
+        }
+        double distance = distances[size];
+        int node = nodes[size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && distances[right] < distances[child]) {
+                child = right;
+            }
+            if (distance <= distances[child]) {
+                break;
+            }
+            distances[i] = distances[child];
+            nodes[i] = nodes[child];
+            i = child;
+        }
+        distances[i] = distance;
+        nodes[i] = node;
+    }
+}
@@ -0,0 +1,475 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+/**
+ * Static, bulk-loaded R-tree over points, packed in Hilbert curve order.
+ * <p>
+ * The points are sorted by the Hilbert key of their position and every run of {@code nodeSize} consecutive
+ * points becomes a leaf node, each run of {@code nodeSize} consecutive nodes becomes a parent node, and so on
+ * up to a single root. Nothing is stored per node except its bounding box, the children of a node are implied
+ * by its position, so the whole tree is a handful of flat primitive arrays.
+ * <p>
+ * Built with a {@link DistanceKernel}, the points are also held as unit sphere positions and the nearest search
+ * scans each leaf with the kernel, comparing half the squared chord, the haversine sort key computed without
+ * trigonometry, against the sort keys of the boxes.
+ */
+final class PackedRTree
+        implements PointIndex {
+
+    static final int defaultNodeSize = 16;
+
+    private final int size;
+    private final int nodeSize;
+    // points in Hilbert order
+    private final double[] lats;
+    private final double[] lons;
+    private final int[] ids;
+    // the leaf scan of the nearest search and the unit sphere positions it scans, null without one
+    private final DistanceKernel kernel;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    // minLat, maxLat, minLon, maxLon per node, levels stored leaves first
+    private final double[] boxes;
+    // index of the first node of each level, plus the total number of nodes
+    private final int[] levelOffsets;
+
+    PackedRTree(PointStore points) {
+        this(points, defaultNodeSize, true);
+    }
+
+    PackedRTree(PointStore points, int nodeSize, boolean parallel) {
+        this(points, nodeSize, parallel, null);
+    }
+
+    PackedRTree(PointStore points, int nodeSize, boolean parallel, DistanceKernel kernel) {
+        if (nodeSize < 2) {
+            throw new IllegalArgumentException("Node size must be at least 2: " + nodeSize);
+        }
+        this.size = points.size();
+        this.nodeSize = nodeSize;
+
+        int[] order = SpaceFillingCurve.hilbertOrder(points, parallel);
+        lats = new double[size];
+        lons = new double[size];
+        ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            lats[i] = points.getLat(order[i]);
+            lons[i] = points.getLon(order[i]);
+            ids[i] = PointStore.getId(order[i]);
+        }
+        this.kernel = kernel == null ? null : kernel.check();
+        if (kernel == null) {
+            xs = ys = zs = null;
+        } else {
+            xs = new double[size];
+            ys = new double[size];
+            zs = new double[size];
+            for (int i = 0; i < size; i++) {
+                double lat = Math.toRadians(lats[i]);
+                double lon = Math.toRadians(lons[i]);
+                xs[i] = Math.cos(lat) * Math.cos(lon);
+                ys[i] = Math.cos(lat) * Math.sin(lon);
+                zs[i] = Math.sin(lat);
+            }
+        }
+
+        // level sizes
+        int levels = 0;
+        int totalNodes = 0;
+        int count = size;
+        do {
+            count = (count + nodeSize - 1) / nodeSize;
+            totalNodes += count;
+            levels++;
+        } while (count > 1);
+        levelOffsets = new int[levels + 1];
+        boxes = new double[4 * totalNodes];
+
+        // leaf boxes
+        int leafCount = (size + nodeSize - 1) / nodeSize;
+        levelOffsets[1] = leafCount;
+        IntStream leaves = IntStream.range(0, leafCount);
+        (parallel ? leaves.parallel() : leaves).forEach(node -> {
+            int from = node * nodeSize;
+            int to = Math.min(from + nodeSize, size);
+            setBox(node, lats, lons, from, to);
+        });
+
+        // internal boxes
+        int childOffset = 0;
+        int childCount = leafCount;
+        for (int level = 1; level < levels; level++) {
+            int offset = levelOffsets[level];
+            int nodeCount = (childCount + nodeSize - 1) / nodeSize;
+            levelOffsets[level + 1] = offset + nodeCount;
+            for (int node = 0; node < nodeCount; node++) {
+                int from = childOffset + node * nodeSize;
+                int to = Math.min(from + nodeSize, childOffset + childCount);
+                double nMinLat = Double.POSITIVE_INFINITY, nMaxLat = Double.NEGATIVE_INFINITY;
+                double nMinLon = Double.POSITIVE_INFINITY, nMaxLon = Double.NEGATIVE_INFINITY;
+                for (int child = from; child < to; child++) {
+                    nMinLat = Math.min(nMinLat, boxes[4 * child]);
+                    nMaxLat = Math.max(nMaxLat, boxes[4 * child + 1]);
+                    nMinLon = Math.min(nMinLon, boxes[4 * child + 2]);
+                    nMaxLon = Math.max(nMaxLon, boxes[4 * child + 3]);
+                }
+                int b = 4 * (offset + node);
+                boxes[b] = nMinLat;
+                boxes[b + 1] = nMaxLat;
+                boxes[b + 2] = nMinLon;
+                boxes[b + 3] = nMaxLon;
+            }
+            childOffset = offset;
+            childCount = nodeCount;
+        }
+    }
+
+    private PackedRTree(int size, int nodeSize, double[] lats, double[] lons, int[] ids,
+                        double[] boxes, int[] levelOffsets) {
+        this.size = size;
+        this.nodeSize = nodeSize;
+        this.lats = lats;
+        this.lons = lons;
+        this.ids = ids;
+        this.kernel = null;
+        this.xs = this.ys = this.zs = null;
+        this.boxes = boxes;
+        this.levelOffsets = levelOffsets;
+    }
+
+    /**
+     * Saves the tree without the positions of the kernel, it is loaded without one.
+     */
+    void save(IndexSnapshot.Writer writer) throws IOException {
+        writer.putInt(size)
+                .putInt(nodeSize)
+                .putDoubles(lats)
+                .putDoubles(lons)
+                .putInts(ids)
+                .putDoubles(boxes)
+                .putInts(levelOffsets);
+    }
+
+    static PackedRTree load(IndexSnapshot.Reader reader) throws IOException {
+        int size = reader.getInt();
+        int nodeSize = reader.getInt();
+        return new PackedRTree(size, nodeSize, reader.getDoubles(), reader.getDoubles(), reader.getInts(),
+                reader.getDoubles(), reader.getInts());
+    }
+
+    private void setBox(int node, double[] lats, double[] lons, int from, int to) {
+        double nMinLat = Double.POSITIVE_INFINITY, nMaxLat = Double.NEGATIVE_INFINITY;
+        double nMinLon = Double.POSITIVE_INFINITY, nMaxLon = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            nMinLat = Math.min(nMinLat, lats[i]);
+            nMaxLat = Math.max(nMaxLat, lats[i]);
+            nMinLon = Math.min(nMinLon, lons[i]);
+            nMaxLon = Math.max(nMaxLon, lons[i]);
+        }
+        int b = 4 * node;
+        boxes[b] = nMinLat;
+        boxes[b + 1] = nMaxLat;
+        boxes[b + 2] = nMinLon;
+        boxes[b + 3] = nMaxLon;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getId(int position) {
+        return ids[position];
+    }
+
+    double getLat(int position) {
+        return lats[position];
+    }
+
+    double getLon(int position) {
+        return lons[position];
+    }
+
+    long getHeapBytes() {
+        return (long) size * ((xs == null ? 2 : 5) * Double.BYTES + Integer.BYTES) + (long) boxes.length * Double.BYTES;
+    }
+
+    private double boxSortKey(int node, double lat, double lon) {
+        int b = 4 * node;
+        return GeoMath.boxSortKey(lat, lon, boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+    }
+
+    /**
+     * Best-first search for the point nearest to (lat, lon) that is closer than {@code maxMeters}.
+     * Distances are compared as haversine sort keys, which have the same order as the distances.
+     * Leaves are scanned with the kernel, if the tree was built with one.
+     *
+     * @param queue scratch queue, reused between calls
+     * @return the position of the nearest point, see {@link #getId(int)}, or -1 if there is none
+     */
+    int nearest(double lat, double lon, double maxMeters, NodeQueue queue) {
+        if (size == 0) {
+            return -1;
+        }
+        int leafCount = levelOffsets[1];
+        int root = levelOffsets[levelOffsets.length - 1] - 1;
+        int nearest = -1;
+        double nearestKey = GeoMath.metersToSortKey(maxMeters);
+        double x = 0, y = 0, z = 0;
+        if (kernel != null) {
+            double latRadians = Math.toRadians(lat);
+            double lonRadians = Math.toRadians(lon);
+            x = Math.cos(latRadians) * Math.cos(lonRadians);
+            y = Math.cos(latRadians) * Math.sin(lonRadians);
+            z = Math.sin(latRadians);
+        }
+
+        queue.clear();
+        queue.push(boxSortKey(root, lat, lon), root);
+        while (!queue.isEmpty() && queue.peekDistance() < nearestKey) {
+            int node = queue.peekNode();
+            queue.pop();
+            if (node < leafCount) {
+                int from = node * nodeSize;
+                int to = Math.min(from + nodeSize, size);
+                if (kernel != null) {
+                    int i = kernel.nearest(xs, ys, zs, from, to, x, y, z, 2 * nearestKey);
+                    if (i >= 0) {
+                        nearestKey = DistanceKernel.chord2(xs, ys, zs, i, x, y, z) / 2;
+                        nearest = i;
+                    }
+                } else {
+                    for (int i = from; i < to; i++) {
+                        double key = GeoMath.sortKey(lat, lon, lats[i], lons[i]);
+                        if (key < nearestKey) {
+                            nearestKey = key;
+                            nearest = i;
+                        }
+                    }
+                }
+            } else {
+                int level = levelOf(node);
+                int childOffset = levelOffsets[level - 1];
+                int from = childOffset + (node - levelOffsets[level]) * nodeSize;
+                int to = Math.min(from + nodeSize, levelOffsets[level]);
+                for (int child = from; child < to; child++) {
+                    double key = boxSortKey(child, lat, lon);
+                    if (key < nearestKey) {
+                        queue.push(key, child);
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Best-first search for the k points nearest to (lat, lon) that are closer than {@code maxMeters},
+     * pruning with the k-th nearest found so far.
+     *
+     * @param result filled with the positions of the points and their sort keys, not yet sorted
+     */
+    void nearest(double lat, double lon, double maxMeters, NodeQueue queue, Neighbours result) {
+        result.clear();
+        if (size == 0) {
+            return;
+        }
+        int leafCount = levelOffsets[1];
+        int root = levelOffsets[levelOffsets.length - 1] - 1;
+        double maxKey = GeoMath.metersToSortKey(maxMeters);
+
+        queue.clear();
+        queue.push(boxSortKey(root, lat, lon), root);
+        while (!queue.isEmpty() && queue.peekDistance() < Math.min(maxKey, result.bound())) {
+            int node = queue.peekNode();
+            queue.pop();
+            if (node < leafCount) {
+                int from = node * nodeSize;
+                int to = Math.min(from + nodeSize, size);
+                for (int i = from; i < to; i++) {
+                    double key = GeoMath.sortKey(lat, lon, lats[i], lons[i]);
+                    if (key < maxKey && key < result.bound()) {
+                        result.offer(i, key);
+                    }
+                }
+            } else {
+                int level = levelOf(node);
+                int childOffset = levelOffsets[level - 1];
+                int from = childOffset + (node - levelOffsets[level]) * nodeSize;
+                int to = Math.min(from + nodeSize, levelOffsets[level]);
+                double bound = Math.min(maxKey, result.bound());
+                for (int child = from; child < to; child++) {
+                    double key = boxSortKey(child, lat, lon);
+                    if (key < bound) {
+                        queue.push(key, child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the points within {@code radiusMeters} of (lat, lon), descending into the nodes whose boxes may hold one.
+     *
+     * @param result filled with the ids of the points, or null to only count them
+     * @return the number of points found
+     */
+    int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+        if (result != null) {
+            result.clear();
+        }
+        if (size == 0) {
+            return 0;
+        }
+        int root = levelOffsets[levelOffsets.length - 1] - 1;
+        double maxKey = GeoMath.metersToSortKey(radiusMeters + GeoMath.marginMeters);
+        return withinDistance(root, levelOffsets.length - 2, lat, lon, radiusMeters, maxKey, result);
+    }
+
+    private int withinDistance(int node, int level, double lat, double lon, double radiusMeters, double maxKey,
+                               PointIds result) {
+        if (boxSortKey(node, lat, lon) > maxKey) {
+            return 0;
+        }
+        int count = 0;
+        if (level == 0) {
+            int from = node * nodeSize;
+            int to = Math.min(from + nodeSize, size);
+            for (int i = from; i < to; i++) {
+                if (GeoMath.haversinMeters(lat, lon, lats[i], lons[i]) <= radiusMeters) {
+                    count++;
+                    if (result != null) {
+                        result.add(ids[i]);
+                    }
+                }
+            }
+        } else {
+            int from = levelOffsets[level - 1] + (node - levelOffsets[level]) * nodeSize;
+            int to = Math.min(from + nodeSize, levelOffsets[level]);
+            for (int child = from; child < to; child++) {
+                count += withinDistance(child, level - 1, lat, lon, radiusMeters, maxKey, result);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the points inside the box. A node whose box is inside it holds a run of points found without
+     * looking at them, so a count only visits the nodes on the edges of the box.
+     *
+     * @param result filled with the ids of the points, or null to only count them
+     * @return the number of points found
+     */
+    int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+        if (result != null) {
+            result.clear();
+        }
+        if (size == 0) {
+            return 0;
+        }
+        int root = levelOffsets[levelOffsets.length - 1] - 1;
+        return withinBox(root, levelOffsets.length - 2, minLat, maxLat, minLon, maxLon, result);
+    }
+
+    private int withinBox(int node, int level, double minLat, double maxLat, double minLon, double maxLon,
+                          PointIds result) {
+        int b = 4 * node;
+        if (boxes[b] > maxLat || boxes[b + 1] < minLat || boxes[b + 2] > maxLon || boxes[b + 3] < minLon) {
+            return 0;
+        }
+        if (boxes[b] >= minLat && boxes[b + 1] <= maxLat && boxes[b + 2] >= minLon && boxes[b + 3] <= maxLon) {
+            // a node of level l holds nodeSize^(l + 1) consecutive points, fewer at the end
+            long span = nodeSize;
+            for (int l = 0; l < level; l++) {
+                span *= nodeSize;
+            }
+            int from = (int) ((node - levelOffsets[level]) * span);
+            int to = (int) Math.min(from + span, size);
+            if (result != null) {
+                for (int i = from; i < to; i++) {
+                    result.add(ids[i]);
+                }
+            }
+            return to - from;
+        }
+        int count = 0;
+        if (level == 0) {
+            int from = node * nodeSize;
+            int to = Math.min(from + nodeSize, size);
+            for (int i = from; i < to; i++) {
+                if (GeoMath.inBox(lats[i], lons[i], minLat, maxLat, minLon, maxLon)) {
+                    count++;
+                    if (result != null) {
+                        result.add(ids[i]);
+                    }
+                }
+            }
+        } else {
+            int from = levelOffsets[level - 1] + (node - levelOffsets[level]) * nodeSize;
+            int to = Math.min(from + nodeSize, levelOffsets[level]);
+            for (int child = from; child < to; child++) {
+                count += withinBox(child, level - 1, minLat, maxLat, minLon, maxLon, result);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        NodeQueue queue = new NodeQueue();
+        return (lat, lon, radiusMeters, result) -> {
+            nearest(lat, lon, radiusMeters, queue, result);
+            int count = result.sort();
+            for (int i = 0; i < count; i++) {
+                int position = result.getId(i);
+                result.set(i, ids[position], GeoMath.haversinMeters(lat, lon, lats[position], lons[position]));
+            }
+            return count;
+        };
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        NodeQueue queue = new NodeQueue();
+        return (lat, lon, radiusMeters, result) -> {
+            int nearest = nearest(lat, lon, radiusMeters, queue);
+            return nearest < 0 ? result.clear() :
+                    result.set(ids[nearest], GeoMath.haversinMeters(lat, lon, lats[nearest], lons[nearest]));
+        };
+    }
+
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        return new RangeSearcher() {
+            @Override
+            public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+                return PackedRTree.this.withinDistance(lat, lon, radiusMeters, result);
+            }
+
+            @Override
+            public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+                return PackedRTree.this.withinBox(minLat, maxLat, minLon, maxLon, result);
+            }
+
+            @Override
+            public int countWithinDistance(double lat, double lon, double radiusMeters) {
+                return PackedRTree.this.withinDistance(lat, lon, radiusMeters, null);
+            }
+
+            @Override
+            public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+                return PackedRTree.this.withinBox(minLat, maxLat, minLon, maxLon, null);
+            }
+        };
+    }
+
+    private int levelOf(int node) {
+        int level = 1;
+        while (node >= levelOffsets[level + 1]) {
+            level++;
+        }
+        return level;
+    }
+}
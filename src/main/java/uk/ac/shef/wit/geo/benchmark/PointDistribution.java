@@ -0,0 +1,191 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * How the synthetic points are spread, generated in parallel and reproducibly from a seed.
+ * <ul>
+ * <li>uniform - uniformly within roughly the UK, lat 48 to 58 and lon -5 to 5</li>
+ * <li>clusters - around 50 city centres in the same box, each a Gaussian of 5 to 25km with random weight</li>
+ * <li>zipf - around 1000 hotspots of 2km in the same box, the i-th holding a share proportional to 1/i</li>
+ * <li>global - uniformly over the surface of the whole globe, so sparse for a given number of points</li>
+ * </ul>
+ * Each distribution leaves an {@link #getEmptyBox() empty box} without points, the source of the
+ * {@link QueryWorkload#empty} queries: the Atlantic west of the UK box, or an area of the Pacific for global.
+ * The {@link QueryWorkload#repeating} queries revisit a small pool of locations drawn from the distribution.
+ */
+public enum PointDistribution {
+    uniform, clusters, zipf, global;
+
+    private static final double minLat = 48, maxLat = 58, minLon = -5, maxLon = 5;
+    private static final double metersPerDegree = GeoMath.earthRadiusMeters * Math.PI / 180;
+    // points are generated in chunks, each from its own random generator, so the result does not depend on threads
+    static final int chunkSize = 1 << 16;
+    // the centres are the same for the index and query points, whatever their seed
+    private static final long centreSeed = 0x5EEDL;
+    private static final int repeatingPoolSize = 100;
+    private static final double repeatingJitterMeters = 10;
+
+    private Centres centres;
+
+    /**
+     * Centres of the clusters or hotspots, with their cumulative weights and spread in metres.
+     */
+    private static final class Centres {
+
+        final double[] lats;
+        final double[] lons;
+        final double[] cumulativeWeights;
+        final double[] sigmaMeters;
+
+        Centres(int count, boolean zipf) {
+            SplittableRandom random = new SplittableRandom(centreSeed + count);
+            lats = new double[count];
+            lons = new double[count];
+            cumulativeWeights = new double[count];
+            sigmaMeters = new double[count];
+            double total = 0;
+            for (int i = 0; i < count; i++) {
+                // inset from the edges so the clusters stay within the box
+                lats[i] = random.nextDouble(minLat + 0.5, maxLat - 0.5);
+                lons[i] = random.nextDouble(minLon + 0.5, maxLon - 0.5);
+                total += zipf ? 1.0 / (i + 1) : random.nextDouble(0.5, 1.5);
+                cumulativeWeights[i] = total;
+                sigmaMeters[i] = zipf ? 2000 : random.nextDouble(5000, 25000);
+            }
+            for (int i = 0; i < count; i++) {
+                cumulativeWeights[i] /= total;
+            }
+        }
+    }
+
+    /**
+     * The first position whose cumulative weight reaches {@code u}.
+     */
+    private static int pick(double[] cumulativeWeights, double u) {
+        int lo = 0;
+        int hi = cumulativeWeights.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulativeWeights[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private synchronized Centres getCentres() {
+        if (centres == null) {
+            centres = new Centres(this == zipf ? 1000 : 50, this == zipf);
+        }
+        return centres;
+    }
+
+    /**
+     * The box, minLat, maxLat, minLon, maxLon, which this distribution leaves without points.
+     */
+    double[] getEmptyBox() {
+        return this == global ? new double[]{-20, 20, -160, -140} : new double[]{minLat, maxLat, -25, -15};
+    }
+
+    /**
+     * The points of the workload, the same for the same seed.
+     */
+    void generate(QueryWorkload workload, long seed, double[] lats, double[] lons, int size) {
+        if (workload == QueryWorkload.repeating) {
+            generateRepeating(seed, lats, lons, size);
+            return;
+        }
+        generate(workload, seed, 0, lats, lons, size);
+    }
+
+    /**
+     * The points of the workload from {@code offset}, the same as at those positions of the whole workload,
+     * so a point file too large for the heap can be written a range at a time.
+     *
+     * @param offset a multiple of {@link #chunkSize}
+     */
+    void generate(QueryWorkload workload, long seed, int offset, double[] lats, double[] lons, int length) {
+        if (offset % chunkSize != 0) {
+            throw new IllegalArgumentException("Offset is not a multiple of the chunk size: " + offset);
+        }
+        if (workload == QueryWorkload.repeating) {
+            throw new UnsupportedOperationException("Repeating queries are only generated whole");
+        }
+        Centres centres = this == clusters || this == zipf ? getCentres() : null;
+        int firstChunk = offset / chunkSize;
+        int chunks = (length + chunkSize - 1) / chunkSize;
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            SplittableRandom random = new SplittableRandom(seed * 31 + firstChunk + chunk);
+            int to = Math.min(length, (chunk + 1) * chunkSize);
+            for (int i = chunk * chunkSize; i < to; i++) {
+                if (workload == QueryWorkload.empty) {
+                    double[] box = getEmptyBox();
+                    lats[i] = random.nextDouble(box[0], box[1]);
+                    lons[i] = random.nextDouble(box[2], box[3]);
+                } else {
+                    generate(random, centres, lats, lons, i);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queries from a pool of locations of this distribution, the i-th chosen in proportion to 1/i,
+     * each moved by a few metres as the different addresses looked up at the same place would be.
+     */
+    private void generateRepeating(long seed, double[] lats, double[] lons, int size) {
+        int poolSize = Math.max(1, Math.min(size, repeatingPoolSize));
+        double[] poolLats = new double[poolSize];
+        double[] poolLons = new double[poolSize];
+        generate(QueryWorkload.matching, seed, poolLats, poolLons, poolSize);
+        double[] cumulativeWeights = new double[poolSize];
+        double total = 0;
+        for (int i = 0; i < poolSize; i++) {
+            total += 1.0 / (i + 1);
+            cumulativeWeights[i] = total;
+        }
+        for (int i = 0; i < poolSize; i++) {
+            cumulativeWeights[i] /= total;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        double jitterDegrees = repeatingJitterMeters / metersPerDegree;
+        for (int i = 0; i < size; i++) {
+            int p = pick(cumulativeWeights, random.nextDouble());
+            lats[i] = Math.max(-90, Math.min(90, poolLats[p] + random.nextGaussian() * jitterDegrees));
+            double lon = poolLons[p] + random.nextGaussian() * jitterDegrees / Math.cos(Math.toRadians(lats[i]));
+            lons[i] = lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+        }
+    }
+
+    private void generate(SplittableRandom random, Centres centres, double[] lats, double[] lons, int i) {
+        switch (this) {
+            case uniform:
+                lats[i] = random.nextDouble(minLat, maxLat);
+                lons[i] = random.nextDouble(minLon, maxLon);
+                break;
+            case clusters:
+            case zipf:
+                int c = pick(centres.cumulativeWeights, random.nextDouble());
+                double sigmaDegrees = centres.sigmaMeters[c] / metersPerDegree;
+                double lat = centres.lats[c] + random.nextGaussian() * sigmaDegrees;
+                lats[i] = Math.max(minLat, Math.min(maxLat, lat));
+                double lon = centres.lons[c] + random.nextGaussian() * sigmaDegrees / Math.cos(Math.toRadians(lat));
+                lons[i] = Math.max(minLon, Math.min(maxLon, lon));
+                break;
+            case global:
+                double[] empty = getEmptyBox();
+                do {
+                    // uniform by area, the sine of the latitude is uniform
+                    lats[i] = Math.toDegrees(Math.asin(random.nextDouble(-1, 1)));
+                    lons[i] = random.nextDouble(-180, 180);
+                } while (lats[i] >= empty[0] && lats[i] <= empty[1] && lons[i] >= empty[2] && lons[i] <= empty[3]);
+                break;
+            default:
+                throw new UnsupportedOperationException("PointDistribution: " + this);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary columnar point file, written once and memory-mapped on subsequent runs.
+ * <p>
+ * Layout (little-endian): a fixed size header holding the magic number, format version,
+ * point count and the lat/lon bounds, followed by the packed latitude column and then
+ * the packed longitude column.
+ * <p>
+ * A single mapping is limited to {@code Integer.MAX_VALUE} bytes, so each column is mapped in segments,
+ * and files are written a range of points at a time, so neither reading nor writing needs the points on the heap.
+ */
+final class PointFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    static final String extension = ".bin";
+
+    private static final int magic = 0x47504E54; // "GPNT"
+    private static final int version = 1;
+    private static final int headerBytes = 64;
+    private static final long maxPoints = Integer.MAX_VALUE;
+    // points per mapped segment of a column, 1GB
+    private static final int segmentShift = 27;
+    private static final int segmentPoints = 1 << segmentShift;
+    private static final int segmentMask = segmentPoints - 1;
+    // points written at a time, a multiple of the chunks in which points are generated
+    private static final int writePoints = 1 << 20;
+
+    /**
+     * Fills {@code lats} and {@code lons} with the {@code length} points from {@code offset}.
+     */
+    @FunctionalInterface
+    interface Source {
+        void get(int offset, double[] lats, double[] lons, int length);
+    }
+
+    private final int size;
+    private final double minLat, maxLat, minLon, maxLon;
+    private final DoubleBuffer[] lats;
+    private final DoubleBuffer[] lons;
+
+    private PointFile(int size, double minLat, double maxLat, double minLon, double maxLon,
+                      DoubleBuffer[] lats, DoubleBuffer[] lons) {
+        this.size = size;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        this.lats = lats;
+        this.lons = lons;
+    }
+
+    int size() {
+        return size;
+    }
+
+    double getLat(int index) {
+        return lats[index >>> segmentShift].get(index & segmentMask);
+    }
+
+    double getLon(int index) {
+        return lons[index >>> segmentShift].get(index & segmentMask);
+    }
+
+    double getMinLat() {
+        return minLat;
+    }
+
+    double getMaxLat() {
+        return maxLat;
+    }
+
+    double getMinLon() {
+        return minLon;
+    }
+
+    double getMaxLon() {
+        return maxLon;
+    }
+
+    /**
+     * Bulk copy of the latitude column, starting at {@code offset}, into {@code dst}.
+     */
+    void getLats(int offset, double[] dst, int dstOffset, int length) {
+        get(lats, offset, dst, dstOffset, length);
+    }
+
+    /**
+     * Bulk copy of the longitude column, starting at {@code offset}, into {@code dst}.
+     */
+    void getLons(int offset, double[] dst, int dstOffset, int length) {
+        get(lons, offset, dst, dstOffset, length);
+    }
+
+    private static void get(DoubleBuffer[] column, int offset, double[] dst, int dstOffset, int length) {
+        while (length > 0) {
+            int position = offset & segmentMask;
+            int count = Math.min(length, segmentPoints - position);
+            column[offset >>> segmentShift].get(position, dst, dstOffset, count);
+            offset += count;
+            dstOffset += count;
+            length -= count;
+        }
+    }
+
+    static PointFile map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Truncated header: " + path);
+                }
+            }
+            header.flip();
+            if (header.getInt() != magic) {
+                throw new IOException("Not a point file: " + path);
+            }
+            int fileVersion = header.getInt();
+            if (fileVersion != version) {
+                throw new IOException("Unsupported point file version " + fileVersion + ": " + path);
+            }
+            long count = header.getLong();
+            double minLat = header.getDouble();
+            double maxLat = header.getDouble();
+            double minLon = header.getDouble();
+            double maxLon = header.getDouble();
+            if (count < 0 || count > maxPoints) {
+                throw new IOException("Invalid point count " + count + ": " + path);
+            }
+            long columnBytes = count * Double.BYTES;
+            if (channel.size() < headerBytes + 2 * columnBytes) {
+                throw new IOException("Truncated point file: " + path);
+            }
+            // the mappings remain valid after the channel is closed
+            DoubleBuffer[] lats = map(channel, headerBytes, (int) count);
+            DoubleBuffer[] lons = map(channel, headerBytes + columnBytes, (int) count);
+            return new PointFile((int) count, minLat, maxLat, minLon, maxLon, lats, lons);
+        }
+    }
+
+    private static DoubleBuffer[] map(FileChannel channel, long position, int count) throws IOException {
+        // in long, a count within a segment of Integer.MAX_VALUE would overflow
+        DoubleBuffer[] segments = new DoubleBuffer[(int) Math.max(1, (count + (long) segmentPoints - 1) / segmentPoints)];
+        for (int segment = 0; segment < segments.length; segment++) {
+            int points = Math.min(segmentPoints, count - segment * segmentPoints);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position + (long) segment * segmentPoints * Double.BYTES, (long) points * Double.BYTES);
+            segments[segment] = buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+        return segments;
+    }
+
+    /**
+     * Writes the columns to a temporary file which is then moved into place,
+     * so an interrupted run never leaves a partial file behind.
+     */
+    static void write(Path path, double[] lats, double[] lons, int count) throws IOException {
+        if (lats.length < count || lons.length < count) {
+            throw new IllegalArgumentException("Columns shorter than point count " + count);
+        }
+        write(path, count, (offset, latsDst, lonsDst, length) -> {
+            System.arraycopy(lats, offset, latsDst, 0, length);
+            System.arraycopy(lons, offset, lonsDst, 0, length);
+        });
+    }
+
+    /**
+     * Writes the points of the source a range at a time, through a temporary file as above.
+     */
+    static void write(Path path, int count, Source source) throws IOException {
+        if (count > maxPoints) {
+            throw new IllegalArgumentException("Too many points for a point file: " + count);
+        }
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        long columnBytes = (long) count * Double.BYTES;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int points = Math.min(count, writePoints);
+            double[] lats = new double[points];
+            double[] lons = new double[points];
+            ByteBuffer buffer = ByteBuffer.allocate(points * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int offset = 0; offset < count; offset += points) {
+                int length = Math.min(points, count - offset);
+                source.get(offset, lats, lons, length);
+                for (int i = 0; i < length; i++) {
+                    minLat = Math.min(minLat, lats[i]);
+                    maxLat = Math.max(maxLat, lats[i]);
+                    minLon = Math.min(minLon, lons[i]);
+                    maxLon = Math.max(maxLon, lons[i]);
+                }
+                long position = headerBytes + (long) offset * Double.BYTES;
+                writeColumn(channel, position, buffer, lats, length);
+                writeColumn(channel, position + columnBytes, buffer, lons, length);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(magic)
+                    .putInt(version)
+                    .putLong(count)
+                    .putDouble(minLat)
+                    .putDouble(maxLat)
+                    .putDouble(minLon)
+                    .putDouble(maxLon);
+            header.clear();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeColumn(FileChannel channel, long position, ByteBuffer buffer,
+                                    double[] column, int length) throws IOException {
+        buffer.clear();
+        buffer.asDoubleBuffer().put(column, 0, length);
+        buffer.limit(length * Double.BYTES);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Converts a "lat,lon" per line CSV file into a point file. Blank lines are ignored, any other line that is not
+     * two numbers, such as a header, is skipped and counted, the count logged so a short import is noticed.
+     */
+    static PointFile importCsv(Path csvPath, Path path) throws IOException {
+        double[] lats = new double[1024];
+        double[] lons = new double[1024];
+        int count = 0;
+        int skipped = 0;
+        long firstSkipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csvPath, StandardCharsets.UTF_8)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                if (comma >= 0) {
+                    try {
+                        double lat = Double.parseDouble(line.substring(0, comma));
+                        double lon = Double.parseDouble(line.substring(comma + 1));
+                        if (count == lats.length) {
+                            lats = Arrays.copyOf(lats, count * 2);
+                            lons = Arrays.copyOf(lons, count * 2);
+                        }
+                        lats[count] = lat;
+                        lons[count] = lon;
+                        count++;
+                        continue;
+                    } catch (NumberFormatException e) {
+                        // counted below
+                    }
+                }
+                if (skipped++ == 0) {
+                    firstSkipped = lineNumber;
+                }
+            }
+        }
+        if (skipped > 0) {
+            logger.warn("Skipped {} malformed lines of {}, the first at line {}", skipped, csvPath, firstSkipped);
+        }
+        logger.info("Imported {} points from {}", count, csvPath);
+        write(path, lats, lons, count);
+        return map(path);
+    }
+
+    /**
+     * Writes the points as "lat,lon" per line CSV, the format previously used for the datasets.
+     */
+    void exportCsv(Path csvPath) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(csvPath, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < size; i++) {
+                writer.write(getLat(i) + "," + getLon(i));
+                writer.newLine();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.err.println("Usage: PointFile import <csv> <bin> | export <bin> <csv>");
+            System.exit(1);
+        }
+        if (args[0].equals("import")) {
+            importCsv(Paths.get(args[1]), Paths.get(args[2]));
+        } else {
+            map(Paths.get(args[1])).exportCsv(Paths.get(args[2]));
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Mutable list of point ids, the result of a range query, reused between queries.
+ * It grows to the largest result and stays that size.
+ */
+final class PointIds {
+
+    private int[] ids = new int[16];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+        }
+        ids[size++] = id;
+    }
+
+    int get(int i) {
+        return ids[i];
+    }
+}
@@ -0,0 +1,69 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+/**
+ * A nearest neighbour index built over a {@link PointStore}, the engine independent view of the indexes
+ * used by the benchmarks that run the same workload against every engine.
+ * <p>
+ * The index itself is shared between threads, each querying thread creates its own {@link Searcher} which holds
+ * any per-thread scratch state. Whether concurrent searchers are actually safe depends on the underlying library.
+ */
+interface PointIndex {
+
+    Searcher newSearcher();
+
+    KNearestSearcher newKNearestSearcher();
+
+    /**
+     * Not supported unless the engine overrides it.
+     */
+    default RangeSearcher newRangeSearcher() {
+        throw new UnsupportedOperationException("Range queries on " + getClass().getSimpleName());
+    }
+
+    interface Searcher {
+
+        /**
+         * Finds the indexed point nearest to (lat, lon) and closer than {@code radiusMeters}.
+         *
+         * @return true if a point was found, its id and haversine distance are set in {@code result}
+         */
+        boolean nearest(double lat, double lon, double radiusMeters, Neighbour result);
+    }
+
+    interface KNearestSearcher {
+
+        /**
+         * Finds the {@link Neighbours#getK()} indexed points nearest to (lat, lon) and closer than
+         * {@code radiusMeters}, ranked by haversine distance.
+         *
+         * @return the number of points found, their ids and distances are in {@code result} in ascending order
+         */
+        int nearest(double lat, double lon, double radiusMeters, Neighbours result);
+    }
+
+    /**
+     * Every point within a distance or inside a box. Engines count without visiting each point where they can,
+     * otherwise the counts visit the same points as the queries but keep no ids.
+     */
+    interface RangeSearcher {
+
+        /**
+         * Finds the indexed points whose haversine distance from (lat, lon) is at most {@code radiusMeters}.
+         *
+         * @return the number of points found, their ids are in {@code result}, cleared first, in no particular order
+         */
+        int withinDistance(double lat, double lon, double radiusMeters, PointIds result);
+
+        /**
+         * Finds the indexed points inside the lat/lon box, its edges included. The box does not cross the
+         * antimeridian, {@code minLon <= maxLon}.
+         *
+         * @return the number of points found, their ids are in {@code result}, cleared first, in no particular order
+         */
+        int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result);
+
+        int countWithinDistance(double lat, double lon, double radiusMeters);
+
+        int countWithinBox(double minLat, double maxLat, double minLon, double maxLon);
+    }
+}
@@ -0,0 +1,83 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+/**
+ * Struct-of-arrays point storage, the latitudes and longitudes are held in two contiguous
+ * primitive arrays rather than one small array object per point.
+ * <p>
+ * Point ids are implicit, the point at index {@code i} has id {@code i + 1} so that 0 can be
+ * used for "no point found".
+ */
+final class PointStore {
+
+    @FunctionalInterface
+    interface PointConsumer {
+        void accept(int id, double lat, double lon);
+    }
+
+    private final double[] lats;
+    private final double[] lons;
+    private final int size;
+
+    PointStore(double[] lats, double[] lons, int size) {
+        if (lats.length < size || lons.length < size) {
+            throw new IllegalArgumentException("Columns shorter than point count " + size);
+        }
+        this.lats = lats;
+        this.lons = lons;
+        this.size = size;
+    }
+
+    static PointStore of(PointFile pointFile) {
+        int size = pointFile.size();
+        double[] lats = new double[size];
+        double[] lons = new double[size];
+        pointFile.getLats(0, lats, 0, size);
+        pointFile.getLons(0, lons, 0, size);
+        return new PointStore(lats, lons, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    double getLat(int index) {
+        return lats[index];
+    }
+
+    double getLon(int index) {
+        return lons[index];
+    }
+
+    static int getId(int index) {
+        return index + 1;
+    }
+
+    static int getIndex(int id) {
+        return id - 1;
+    }
+
+    void forEach(PointConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(i + 1, lats[i], lons[i]);
+        }
+    }
+
+    /**
+     * A hash of every coordinate, identifies the points an index snapshot was built from.
+     */
+    long fingerprint() {
+        long hash = size;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + Double.doubleToLongBits(lats[i]);
+            hash = 31 * hash + Double.doubleToLongBits(lons[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * Heap used by the coordinate arrays, excluding the two array headers.
+     */
+    long getHeapBytes() {
+        return 2L * Double.BYTES * lats.length;
+    }
+}
@@ -0,0 +1,136 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The off-heap {@link QuantizedIndex}, built straight from the mapped point file so the index points are never
+ * copied onto the heap, which lets it be run at sizes beyond the heap of the other engines.
+ */
+@State(Scope.Thread)
+public class QuantizedBenchmark
+        extends AbstractBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    @Param({"64", "256"})
+    int blockSize;
+
+    private final NodeQueue queue = new NodeQueue();
+    private QuantizedIndex index;
+
+    @Setup
+    public void setup() {
+        logger.info("Creating or reading {} points", numberOfIndexPoints);
+        PointFile points = getIndexPointFile();
+        long heapBefore = getUsedHeapBytes();
+        logger.info("Indexing points");
+        long time = System.currentTimeMillis();
+        index = new QuantizedIndex(points, blockSize);
+        logger.info("Indexed {} points in {}ms", numberOfIndexPoints, System.currentTimeMillis() - time);
+        long heapBytes = getUsedHeapBytes() - heapBefore;
+        logger.info("{}: index heap {} MB, {} bytes/point, off-heap {} MB, {} bytes/point",
+                getClass().getSimpleName(),
+                heapBytes / (1024 * 1024),
+                String.format("%.2f", (double) heapBytes / Math.max(1, index.size())),
+                index.getOffHeapBytes() / (1024 * 1024),
+                index.getOffHeapBytes() / Math.max(1, index.size()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public void query() {
+
+        long nearestCount = 0;
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
+            double lat = queryPoints.getLat(q);
+            double lon = queryPoints.getLon(q);
+            int nearest = index.nearest(lat, lon, queryRadiusMetres, queue);
+            if (nearest >= 0) {
+                nearestCount++;
+                double distance = GeoMath.haversinMeters(lat, lon, index.getLat(nearest), index.getLon(nearest));
+                setResult(q, index.getId(nearest), distance);
+            } else {
+                setResult(q, 0, -1.0);
+            }
+        }
+
+        candidateCounts.add(nearestCount);
+        nearestCounts.add(nearestCount);
+    }
+
+    @TearDown
+    public void teardown() {
+        super.teardown();
+    }
+
+    /**
+     * Runs the quantized index against JSI and Lucene up to 500 million points, printing the throughput and the
+     * time spent in garbage collection of each, the heap and off-heap bytes per point are logged by each setup.
+     * The quantized columns take 12 bytes a point outside the heap, the direct memory limit is raised for them.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(QuantizedBenchmark.class.getSimpleName())
+                .include(JsiBenchmark.class.getSimpleName())
+                .include(LuceneBenchmark.class.getSimpleName())
+                .param("numberOfIndexPoints", "10000000", "100000000", "500000000")
+                .param("queryRadiusMetres", "10000")
+                .param("distribution", "uniform")
+                .param("queryWorkload", "matching")
+                .param("blockSize", "64")
+                // a single Lucene layout, the full sweep would take days at these sizes
+                .param("luceneType", "mmap")
+                .param("forceMerge", "false")
+                .param("indexSort", "none")
+                .param("searchExecutor", "none")
+                .param("idSource", "stored")
+                .jvmArgsAppend("-XX:MaxDirectMemorySize=8g")
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        System.out.format("%nbenchmark\tpoints\tops/s\tgc count\tgc ms%n");
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            Result<?> gcCount = runResult.getSecondaryResults().get("gc.count");
+            Result<?> gcTime = runResult.getSecondaryResults().get("gc.time");
+            System.out.format("%s\t%s\t%.1f\t%s\t%s%n",
+                    params.getBenchmark().replaceAll(".*\\.(\\w+)\\.\\w+$", "$1"),
+                    params.getParam("numberOfIndexPoints"),
+                    runResult.getPrimaryResult().getScore(),
+                    gcCount == null ? "" : String.format("%.0f", gcCount.getScore()),
+                    gcTime == null ? "" : String.format("%.0f", gcTime.getScore()));
+        }
+    }
+}
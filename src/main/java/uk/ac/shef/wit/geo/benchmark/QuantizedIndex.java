@@ -0,0 +1,527 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.apache.lucene.geo.GeoEncodingUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Points quantized to 32 bit latitudes and longitudes with Lucene's {@link GeoEncodingUtils}, held outside the
+ * Java heap in direct buffers, so hundreds of millions of points need neither a heap that size nor add to what
+ * the collector has to trace.
+ * <p>
+ * The points are sorted along the Hilbert curve and stored as columns of encoded latitudes, longitudes and ids,
+ * every run of {@code blockSize} points a block. The heap holds only a packed R-tree over the blocks, as in
+ * {@link PackedRTree}: the encoded bounding box of each block, then of each run of {@code nodeSize} nodes up to
+ * the root. The points can be built from a mapped {@link PointFile} without copying them onto the heap, the sort
+ * first counts them into cells along the curve and then sorts each cell.
+ * <p>
+ * Decoded coordinates are within a centimetre of the originals, distances are between the decoded points.
+ */
+final class QuantizedIndex
+        implements PointIndex {
+
+    static final int defaultBlockSize = 64;
+    private static final int nodeSize = 16;
+    // ints per direct buffer segment of a column, 1GB, a multiple of the block size so no block spans two
+    private static final int segmentShift = 28;
+    private static final int segmentMask = (1 << segmentShift) - 1;
+    // the sort counts points into at most 2^maxCellBits cells along the curve, about cellPoints to a cell
+    private static final int maxCellBits = 22;
+    private static final int cellPoints = 16;
+
+    private final int size;
+    private final int blockSize;
+    private final IntBuffer[] lats;
+    private final IntBuffer[] lons;
+    private final IntBuffer[] ids;
+    // encoded minLat, maxLat, minLon, maxLon per node, levels stored blocks first
+    private final int[] boxes;
+    // index of the first node of each level, plus the total number of nodes
+    private final int[] levelOffsets;
+
+    QuantizedIndex(PointStore points) {
+        this(points, defaultBlockSize, true);
+    }
+
+    QuantizedIndex(PointStore points, int blockSize, boolean parallel) {
+        this(points.size(), points::getLat, points::getLon, getBounds(points), blockSize, parallel);
+    }
+
+    /**
+     * Builds the index from the mapped file, reading the points from it without a copy on the heap.
+     */
+    QuantizedIndex(PointFile points, int blockSize) {
+        this(points.size(), points::getLat, points::getLon,
+                new double[]{points.getMinLat(), points.getMaxLat(), points.getMinLon(), points.getMaxLon()},
+                blockSize, true);
+    }
+
+    private QuantizedIndex(int size, IntToDoubleFunction latOf, IntToDoubleFunction lonOf, double[] bounds,
+                           int blockSize, boolean parallel) {
+        if (blockSize < 2 || Integer.bitCount(blockSize) != 1 || blockSize > 1 << segmentShift) {
+            throw new IllegalArgumentException("Block size must be a power of two of at least 2: " + blockSize);
+        }
+        this.size = size;
+        this.blockSize = blockSize;
+        lats = allocate(size);
+        lons = allocate(size);
+        ids = allocate(size);
+
+        // the Hilbert key of each point over the bounds, in [0, 2^32)
+        IntToLongFunction key = i -> SpaceFillingCurve.hilbert(
+                SpaceFillingCurve.scale(lonOf.applyAsDouble(i), bounds[2], bounds[3]),
+                SpaceFillingCurve.scale(latOf.applyAsDouble(i), bounds[0], bounds[1]));
+        int cellBits = Math.max(1, Math.min(maxCellBits, 32 - Integer.numberOfLeadingZeros(size / cellPoints)));
+        int cellShift = 2 * SpaceFillingCurve.bits - cellBits;
+
+        // count the points of each cell, then place the index of each point in its cell's range of the id column
+        AtomicIntegerArray cellEnds = new AtomicIntegerArray((1 << cellBits) + 1);
+        range(size, parallel).forEach(i -> cellEnds.incrementAndGet((int) (key.applyAsLong(i) >>> cellShift) + 1));
+        for (int cell = 1; cell < cellEnds.length(); cell++) {
+            cellEnds.set(cell, cellEnds.get(cell) + cellEnds.get(cell - 1));
+        }
+        range(size, parallel).forEach(i -> {
+            int position = cellEnds.getAndIncrement((int) (key.applyAsLong(i) >>> cellShift));
+            put(ids, position, i);
+        });
+
+        // each cell is now at [cellEnds[cell - 1], cellEnds[cell]), sort it on the full key then the index
+        range(1 << cellBits, parallel).forEach(cell -> {
+            int from = cell == 0 ? 0 : cellEnds.get(cell - 1);
+            int to = cellEnds.get(cell);
+            long[] keys = new long[to - from];
+            for (int position = from; position < to; position++) {
+                int i = get(ids, position);
+                keys[position - from] = key.applyAsLong(i) << 31 | i;
+            }
+            Arrays.sort(keys);
+            for (int position = from; position < to; position++) {
+                int i = (int) (keys[position - from] & Integer.MAX_VALUE);
+                put(lats, position, GeoEncodingUtils.encodeLatitude(latOf.applyAsDouble(i)));
+                put(lons, position, GeoEncodingUtils.encodeLongitude(lonOf.applyAsDouble(i)));
+                put(ids, position, PointStore.getId(i));
+            }
+        });
+
+        // level sizes
+        int levels = 0;
+        int totalNodes = 0;
+        int count = size;
+        int childSize = blockSize;
+        do {
+            count = (int) ((count + (long) childSize - 1) / childSize);
+            totalNodes += count;
+            levels++;
+            childSize = nodeSize;
+        } while (count > 1);
+        levelOffsets = new int[levels + 1];
+        boxes = new int[4 * totalNodes];
+
+        // block boxes
+        int blockCount = (int) ((size + (long) blockSize - 1) / blockSize);
+        levelOffsets[1] = blockCount;
+        range(blockCount, parallel).forEach(block -> {
+            int from = block * blockSize;
+            int to = from + Math.min(blockSize, size - from);
+            IntBuffer blockLats = lats[from >>> segmentShift];
+            IntBuffer blockLons = lons[from >>> segmentShift];
+            int bMinLat = Integer.MAX_VALUE, bMaxLat = Integer.MIN_VALUE;
+            int bMinLon = Integer.MAX_VALUE, bMaxLon = Integer.MIN_VALUE;
+            for (int position = from & segmentMask, end = position + to - from; position < end; position++) {
+                bMinLat = Math.min(bMinLat, blockLats.get(position));
+                bMaxLat = Math.max(bMaxLat, blockLats.get(position));
+                bMinLon = Math.min(bMinLon, blockLons.get(position));
+                bMaxLon = Math.max(bMaxLon, blockLons.get(position));
+            }
+            setBox(block, bMinLat, bMaxLat, bMinLon, bMaxLon);
+        });
+
+        // internal boxes
+        int childOffset = 0;
+        int childCount = blockCount;
+        for (int level = 1; level < levels; level++) {
+            int offset = levelOffsets[level];
+            int nodeCount = (childCount + nodeSize - 1) / nodeSize;
+            levelOffsets[level + 1] = offset + nodeCount;
+            for (int node = 0; node < nodeCount; node++) {
+                int from = childOffset + node * nodeSize;
+                int to = Math.min(from + nodeSize, childOffset + childCount);
+                int nMinLat = Integer.MAX_VALUE, nMaxLat = Integer.MIN_VALUE;
+                int nMinLon = Integer.MAX_VALUE, nMaxLon = Integer.MIN_VALUE;
+                for (int child = from; child < to; child++) {
+                    nMinLat = Math.min(nMinLat, boxes[4 * child]);
+                    nMaxLat = Math.max(nMaxLat, boxes[4 * child + 1]);
+                    nMinLon = Math.min(nMinLon, boxes[4 * child + 2]);
+                    nMaxLon = Math.max(nMaxLon, boxes[4 * child + 3]);
+                }
+                setBox(offset + node, nMinLat, nMaxLat, nMinLon, nMaxLon);
+            }
+            childOffset = offset;
+            childCount = nodeCount;
+        }
+    }
+
+    private static double[] getBounds(PointStore points) {
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < points.size(); i++) {
+            bounds[0] = Math.min(bounds[0], points.getLat(i));
+            bounds[1] = Math.max(bounds[1], points.getLat(i));
+            bounds[2] = Math.min(bounds[2], points.getLon(i));
+            bounds[3] = Math.max(bounds[3], points.getLon(i));
+        }
+        return bounds;
+    }
+
+    private static IntStream range(int size, boolean parallel) {
+        IntStream range = IntStream.range(0, size);
+        return parallel ? range.parallel() : range;
+    }
+
+    /**
+     * A column of {@code size} ints in direct buffers of at most 2^{@link #segmentShift} ints.
+     */
+    private static IntBuffer[] allocate(int size) {
+        IntBuffer[] segments = new IntBuffer[Math.max(1, (int) (((long) size + segmentMask) >>> segmentShift))];
+        for (int segment = 0; segment < segments.length; segment++) {
+            int ints = Math.min(1 << segmentShift, size - (segment << segmentShift));
+            segments[segment] = ByteBuffer.allocateDirect(ints * Integer.BYTES).order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+        }
+        return segments;
+    }
+
+    private static int get(IntBuffer[] column, int position) {
+        return column[position >>> segmentShift].get(position & segmentMask);
+    }
+
+    private static void put(IntBuffer[] column, int position, int value) {
+        column[position >>> segmentShift].put(position & segmentMask, value);
+    }
+
+    private void setBox(int node, int minLat, int maxLat, int minLon, int maxLon) {
+        int b = 4 * node;
+        boxes[b] = minLat;
+        boxes[b + 1] = maxLat;
+        boxes[b + 2] = minLon;
+        boxes[b + 3] = maxLon;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getId(int position) {
+        return get(ids, position);
+    }
+
+    double getLat(int position) {
+        return GeoEncodingUtils.decodeLatitude(get(lats, position));
+    }
+
+    double getLon(int position) {
+        return GeoEncodingUtils.decodeLongitude(get(lons, position));
+    }
+
+    /**
+     * Heap used by the tree over the blocks, the points themselves are off the heap.
+     */
+    long getHeapBytes() {
+        return (long) boxes.length * Integer.BYTES + (long) levelOffsets.length * Integer.BYTES;
+    }
+
+    long getOffHeapBytes() {
+        return (long) size * 3 * Integer.BYTES;
+    }
+
+    private double boxSortKey(int node, double lat, double lon) {
+        int b = 4 * node;
+        return GeoMath.boxSortKey(lat, lon,
+                GeoEncodingUtils.decodeLatitude(boxes[b]), GeoEncodingUtils.decodeLatitude(boxes[b + 1]),
+                GeoEncodingUtils.decodeLongitude(boxes[b + 2]), GeoEncodingUtils.decodeLongitude(boxes[b + 3]));
+    }
+
+    /**
+     * Best-first search for the point nearest to (lat, lon) that is closer than {@code maxMeters},
+     * as {@link PackedRTree#nearest(double, double, double, NodeQueue)}.
+     *
+     * @param queue scratch queue, reused between calls
+     * @return the position of the nearest point, see {@link #getId(int)}, or -1 if there is none
+     */
+    int nearest(double lat, double lon, double maxMeters, NodeQueue queue) {
+        if (size == 0) {
+            return -1;
+        }
+        int blockCount = levelOffsets[1];
+        int root = levelOffsets[levelOffsets.length - 1] - 1;
+        int nearest = -1;
+        double nearestKey = GeoMath.metersToSortKey(maxMeters);
+
+        queue.clear();
+        queue.push(boxSortKey(root, lat, lon), root);
+        while (!queue.isEmpty() && queue.peekDistance() < nearestKey) {
+            int node = queue.peekNode();
+            queue.pop();
+            if (node < blockCount) {
+                int from = node * blockSize;
+                int to = from + Math.min(blockSize, size - from);
+                IntBuffer blockLats = lats[from >>> segmentShift];
+                IntBuffer blockLons = lons[from >>> segmentShift];
+                int offset = from & segmentMask;
+                for (int position = offset, end = offset + to - from; position < end; position++) {
+                    double key = GeoMath.sortKey(lat, lon, GeoEncodingUtils.decodeLatitude(blockLats.get(position)),
+                            GeoEncodingUtils.decodeLongitude(blockLons.get(position)));
+                    if (key < nearestKey) {
+                        nearestKey = key;
+                        nearest = from + position - offset;
+                    }
+                }
+            } else {
+                int level = levelOf(node);
+                int childOffset = levelOffsets[level - 1];
+                int from = childOffset + (node - levelOffsets[level]) * nodeSize;
+                int to = Math.min(from + nodeSize, levelOffsets[level]);
+                for (int child = from; child < to; child++) {
+                    double key = boxSortKey(child, lat, lon);
+                    if (key < nearestKey) {
+                        queue.push(key, child);
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Best-first search for the k points nearest to (lat, lon) that are closer than {@code maxMeters},
+     * pruning with the k-th nearest found so far.
+     *
+     * @param result filled with the positions of the points and their sort keys, not yet sorted
+     */
+    void nearest(double lat, double lon, double maxMeters, NodeQueue queue, Neighbours result) {
+        result.clear();
+        if (size == 0) {
+            return;
+        }
+        int blockCount = levelOffsets[1];
+        int root = levelOffsets[levelOffsets.length - 1] - 1;
+        double maxKey = GeoMath.metersToSortKey(maxMeters);
+
+        queue.clear();
+        queue.push(boxSortKey(root, lat, lon), root);
+        while (!queue.isEmpty() && queue.peekDistance() < Math.min(maxKey, result.bound())) {
+            int node = queue.peekNode();
+            queue.pop();
+            if (node < blockCount) {
+                int from = node * blockSize;
+                int to = from + Math.min(blockSize, size - from);
+                IntBuffer blockLats = lats[from >>> segmentShift];
+                IntBuffer blockLons = lons[from >>> segmentShift];
+                int offset = from & segmentMask;
+                for (int position = offset, end = offset + to - from; position < end; position++) {
+                    double key = GeoMath.sortKey(lat, lon, GeoEncodingUtils.decodeLatitude(blockLats.get(position)),
+                            GeoEncodingUtils.decodeLongitude(blockLons.get(position)));
+                    if (key < maxKey && key < result.bound()) {
+                        result.offer(from + position - offset, key);
+                    }
+                }
+            } else {
+                int level = levelOf(node);
+                int childOffset = levelOffsets[level - 1];
+                int from = childOffset + (node - levelOffsets[level]) * nodeSize;
+                int to = Math.min(from + nodeSize, levelOffsets[level]);
+                double bound = Math.min(maxKey, result.bound());
+                for (int child = from; child < to; child++) {
+                    double key = boxSortKey(child, lat, lon);
+                    if (key < bound) {
+                        queue.push(key, child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the points within {@code radiusMeters} of (lat, lon), as
+     * {@link PackedRTree#withinDistance(double, double, double, PointIds)}.
+     *
+     * @param result filled with the ids of the points, or null to only count them
+     * @return the number of points found
+     */
+    int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+        if (result != null) {
+            result.clear();
+        }
+        if (size == 0) {
+            return 0;
+        }
+        int root = levelOffsets[levelOffsets.length - 1] - 1;
+        double maxKey = GeoMath.metersToSortKey(radiusMeters + GeoMath.marginMeters);
+        return withinDistance(root, levelOffsets.length - 2, lat, lon, radiusMeters, maxKey, result);
+    }
+
+    private int withinDistance(int node, int level, double lat, double lon, double radiusMeters, double maxKey,
+                               PointIds result) {
+        if (boxSortKey(node, lat, lon) > maxKey) {
+            return 0;
+        }
+        int count = 0;
+        if (level == 0) {
+            int from = node * blockSize;
+            int to = from + Math.min(blockSize, size - from);
+            IntBuffer blockLats = lats[from >>> segmentShift];
+            IntBuffer blockLons = lons[from >>> segmentShift];
+            int offset = from & segmentMask;
+            for (int position = offset, end = offset + to - from; position < end; position++) {
+                if (GeoMath.haversinMeters(lat, lon, GeoEncodingUtils.decodeLatitude(blockLats.get(position)),
+                        GeoEncodingUtils.decodeLongitude(blockLons.get(position))) <= radiusMeters) {
+                    count++;
+                    if (result != null) {
+                        result.add(getId(from + position - offset));
+                    }
+                }
+            }
+        } else {
+            int from = levelOffsets[level - 1] + (node - levelOffsets[level]) * nodeSize;
+            int to = Math.min(from + nodeSize, levelOffsets[level]);
+            for (int child = from; child < to; child++) {
+                count += withinDistance(child, level - 1, lat, lon, radiusMeters, maxKey, result);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the points inside the box, as {@link PackedRTree#withinBox(double, double, double, double, PointIds)}:
+     * the points of a node inside the box are counted from its position alone, without reading the off-heap
+     * columns.
+     *
+     * @param result filled with the ids of the points, or null to only count them
+     * @return the number of points found
+     */
+    int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+        if (result != null) {
+            result.clear();
+        }
+        if (size == 0) {
+            return 0;
+        }
+        int root = levelOffsets[levelOffsets.length - 1] - 1;
+        return withinBox(root, levelOffsets.length - 2, minLat, maxLat, minLon, maxLon, result);
+    }
+
+    private int withinBox(int node, int level, double minLat, double maxLat, double minLon, double maxLon,
+                          PointIds result) {
+        int b = 4 * node;
+        double nMinLat = GeoEncodingUtils.decodeLatitude(boxes[b]);
+        double nMaxLat = GeoEncodingUtils.decodeLatitude(boxes[b + 1]);
+        double nMinLon = GeoEncodingUtils.decodeLongitude(boxes[b + 2]);
+        double nMaxLon = GeoEncodingUtils.decodeLongitude(boxes[b + 3]);
+        if (nMinLat > maxLat || nMaxLat < minLat || nMinLon > maxLon || nMaxLon < minLon) {
+            return 0;
+        }
+        if (nMinLat >= minLat && nMaxLat <= maxLat && nMinLon >= minLon && nMaxLon <= maxLon) {
+            // a node of level l holds blockSize * nodeSize^l consecutive points, fewer at the end
+            long span = blockSize;
+            for (int l = 0; l < level; l++) {
+                span *= nodeSize;
+            }
+            int from = (int) ((node - levelOffsets[level]) * span);
+            int to = (int) Math.min(from + span, size);
+            if (result != null) {
+                for (int position = from; position < to; position++) {
+                    result.add(getId(position));
+                }
+            }
+            return to - from;
+        }
+        int count = 0;
+        if (level == 0) {
+            int from = node * blockSize;
+            int to = from + Math.min(blockSize, size - from);
+            IntBuffer blockLats = lats[from >>> segmentShift];
+            IntBuffer blockLons = lons[from >>> segmentShift];
+            int offset = from & segmentMask;
+            for (int position = offset, end = offset + to - from; position < end; position++) {
+                if (GeoMath.inBox(GeoEncodingUtils.decodeLatitude(blockLats.get(position)),
+                        GeoEncodingUtils.decodeLongitude(blockLons.get(position)), minLat, maxLat, minLon, maxLon)) {
+                    count++;
+                    if (result != null) {
+                        result.add(getId(from + position - offset));
+                    }
+                }
+            }
+        } else {
+            int from = levelOffsets[level - 1] + (node - levelOffsets[level]) * nodeSize;
+            int to = Math.min(from + nodeSize, levelOffsets[level]);
+            for (int child = from; child < to; child++) {
+                count += withinBox(child, level - 1, minLat, maxLat, minLon, maxLon, result);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        NodeQueue queue = new NodeQueue();
+        return (lat, lon, radiusMeters, result) -> {
+            nearest(lat, lon, radiusMeters, queue, result);
+            int count = result.sort();
+            for (int i = 0; i < count; i++) {
+                int position = result.getId(i);
+                result.set(i, getId(position), GeoMath.haversinMeters(lat, lon, getLat(position), getLon(position)));
+            }
+            return count;
+        };
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        NodeQueue queue = new NodeQueue();
+        return (lat, lon, radiusMeters, result) -> {
+            int nearest = nearest(lat, lon, radiusMeters, queue);
+            return nearest < 0 ? result.clear() :
+                    result.set(getId(nearest), GeoMath.haversinMeters(lat, lon, getLat(nearest), getLon(nearest)));
+        };
+    }
+
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        return new RangeSearcher() {
+            @Override
+            public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+                return QuantizedIndex.this.withinDistance(lat, lon, radiusMeters, result);
+            }
+
+            @Override
+            public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+                return QuantizedIndex.this.withinBox(minLat, maxLat, minLon, maxLon, result);
+            }
+
+            @Override
+            public int countWithinDistance(double lat, double lon, double radiusMeters) {
+                return QuantizedIndex.this.withinDistance(lat, lon, radiusMeters, null);
+            }
+
+            @Override
+            public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+                return QuantizedIndex.this.withinBox(minLat, maxLat, minLon, maxLon, null);
+            }
+        };
+    }
+
+    private int levelOf(int node) {
+        int level = 1;
+        while (node >= levelOffsets[level + 1]) {
+            level++;
+        }
+        return level;
+    }
+}
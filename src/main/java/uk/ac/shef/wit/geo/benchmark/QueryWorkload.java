@@ -0,0 +1,10 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+/**
+ * Where the query points come from: the same {@link PointDistribution} as the index points, with a different seed,
+ * the region the distribution leaves empty, so no query has a point nearby,
+ * or a stream that keeps returning to the same few places, as production lookups of stations and postcodes do.
+ */
+public enum QueryWorkload {
+    matching, empty, repeating
+}
@@ -0,0 +1,160 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range queries against every engine, see {@link PointIndex.RangeSearcher}: the points within
+ * {@link #queryRadiusMetres} of each query point, both collecting the ids and only counting them.
+ * The box queries are in {@link ViewportBenchmark}.
+ * <p>
+ * Each operation is a batch of all the query points, as in the per-engine benchmarks. The number of points found
+ * and of queries run are counted by {@link Results}, so the size of the result sets is reported beside the
+ * throughput.
+ */
+@State(Scope.Thread)
+public class RangeBenchmark
+        extends AbstractBenchmark {
+
+    @Param({"packed", "grid", "jsi", "lucene", "geotools", "strtree", "jeo", "vptree", "quantized"})
+    IndexType indexType;
+
+    private PointIndex index;
+    private PointIndex.RangeSearcher searcher;
+    private final PointIds result = new PointIds();
+    private PointStore queryPoints;
+
+    /**
+     * The points found and the queries run in each iteration, secondary results of the benchmark.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Results {
+
+        public long points;
+        public long queries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            points = 0;
+            queries = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        try {
+            index = indexType.create(getIndexPoints(), getOutputDirectory(), getIndexName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        searcher = index.newRangeSearcher();
+        queryPoints = getQueryPoints();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long withinDistance(Results results) {
+        long count = 0;
+        for (int q = 0; q < queryPoints.size(); q++) {
+            count += searcher.withinDistance(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, result);
+        }
+        results.points += count;
+        results.queries += queryPoints.size();
+        return count;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long countWithinDistance(Results results) {
+        long count = 0;
+        for (int q = 0; q < queryPoints.size(); q++) {
+            count += searcher.countWithinDistance(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres);
+        }
+        results.points += count;
+        results.queries += queryPoints.size();
+        return count;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeIndex() {
+        if (index instanceof Closeable) {
+            try {
+                ((Closeable) index).close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the distance queries at each radius and the {@link ViewportBenchmark} box queries at each viewport size,
+     * and prints the throughput of each engine with the mean number of points found.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options distance = new OptionsBuilder()
+                .include(RangeBenchmark.class.getSimpleName())
+                .param("numberOfIndexPoints", "100000", "1000000")
+                .param("queryRadiusMetres", "1000", "10000", "100000")
+                .param("distribution", "uniform")
+                .param("queryWorkload", "matching")
+                .build();
+        Options box = new OptionsBuilder()
+                .include(ViewportBenchmark.class.getSimpleName())
+                .param("numberOfIndexPoints", "100000", "1000000")
+                .param("distribution", "uniform")
+                .param("queryWorkload", "matching")
+                .build();
+
+        Collection<RunResult> runResults = new ArrayList<>(new Runner(distance).run());
+        runResults.addAll(new Runner(box).run());
+
+        System.out.format("%nengine\tpoints\tquery\tradius or viewport m\tops/s\tpoints per query%n");
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            String viewport = params.getParam("viewportMetres");
+            Result<?> points = runResult.getSecondaryResults().get("points");
+            Result<?> queries = runResult.getSecondaryResults().get("queries");
+            System.out.format("%s\t%s\t%s\t%s\t%.2f\t%.1f%n",
+                    params.getParam("indexType"),
+                    params.getParam("numberOfIndexPoints"),
+                    params.getBenchmark().replaceAll(".*\\.", ""),
+                    viewport == null ? params.getParam("queryRadiusMetres") : viewport,
+                    runResult.getPrimaryResult().getScore(),
+                    points.getScore() / queries.getScore());
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+/**
+ * Where each shard of a {@link ShardedIndex} is searched.
+ * <ul>
+ * <li>worker - in this JVM, each shard with its own index and a single thread that runs every search of it</li>
+ * <li>process - in a JVM of its own, a {@link ShardServer} on the loopback interface, so the shards share no heap
+ * and each has its own garbage collector</li>
+ * </ul>
+ */
+public enum ShardHosting {
+    worker, process
+}
@@ -0,0 +1,120 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+
+/**
+ * One shard of a {@link ShardedIndex} in a JVM of its own, started by the index with {@link ShardHosting#process}.
+ * It indexes the points of its point file with the engine, or loads the index saved by an earlier run, prints the
+ * port it listens on to standard output and serves nearest lookups on the loopback interface until standard input
+ * is closed, which it is when the index is closed or its JVM exits.
+ * <p>
+ * Each connection is served by a thread with its own searchers. A request is the latitude, longitude and radius in
+ * metres as three doubles and k as an int. For k 0 the response is the id of the nearest point in the shard's point
+ * file, 0 for none, as an int and its distance as a double; otherwise it is the number of points found as an int,
+ * then the id and distance of each, nearest first.
+ * <pre>
+ * ShardServer indexType pointFile outputDirectory indexName
+ * </pre>
+ */
+final class ShardServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private ShardServer() {
+    }
+
+    private static void serve(PointIndex index, Socket socket) {
+        PointIndex.Searcher searcher = index.newSearcher();
+        PointIndex.KNearestSearcher kNearestSearcher = null;
+        Neighbour neighbour = new Neighbour();
+        Neighbours neighbours = null;
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                double lat;
+                try {
+                    lat = in.readDouble();
+                } catch (EOFException e) {
+                    // the searcher was closed
+                    return;
+                }
+                double lon = in.readDouble();
+                double radiusMeters = in.readDouble();
+                int k = in.readInt();
+                if (k == 0) {
+                    searcher.nearest(lat, lon, radiusMeters, neighbour);
+                    out.writeInt(neighbour.id);
+                    out.writeDouble(neighbour.distance);
+                } else {
+                    if (kNearestSearcher == null) {
+                        kNearestSearcher = index.newKNearestSearcher();
+                    }
+                    if (neighbours == null || neighbours.getK() != k) {
+                        neighbours = new Neighbours(k);
+                    }
+                    int count = kNearestSearcher.nearest(lat, lon, radiusMeters, neighbours);
+                    out.writeInt(count);
+                    for (int i = 0; i < count; i++) {
+                        out.writeInt(neighbours.getId(i));
+                        out.writeDouble(neighbours.getDistance(i));
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.warn("Connection failed: {}", e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        IndexType indexType = IndexType.valueOf(args[0]);
+        PointStore points = PointStore.of(PointFile.map(Paths.get(args[1])));
+        File outputDirectory = new File(args[2]);
+        long time = System.currentTimeMillis();
+        // JSI keeps the state of a search in the tree, so its searches are serialised by the mutable index
+        PointIndex index = indexType == IndexType.jsi ?
+                indexType.createMutable(points, outputDirectory, args[3]) :
+                indexType.create(points, outputDirectory, args[3]);
+        logger.info("Indexed or loaded {} points of {} in {}ms", points.size(), args[1],
+                System.currentTimeMillis() - time);
+
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread parent = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0) {
+                    // nothing is sent, standard input is only closed
+                }
+            } catch (IOException e) {
+                // as closed
+            }
+            System.exit(0);
+        }, "parent");
+        parent.setDaemon(true);
+        parent.start();
+        System.out.println(server.getLocalPort());
+        System.out.flush();
+
+        while (true) {
+            Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            Thread connection = new Thread(() -> serve(index, socket), "connection-" + socket.getPort());
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+}
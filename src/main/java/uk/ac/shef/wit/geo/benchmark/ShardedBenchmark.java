@@ -0,0 +1,150 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest lookups scattered over a {@link ShardedIndex} of each engine, against the number of shards and where they
+ * are hosted, as batch throughput ({@link #query()}) and the latency of single lookups ({@link #lookup()}).
+ * The mean number of shards each lookup was sent to is printed at the end of each trial.
+ */
+@State(Scope.Thread)
+public class ShardedBenchmark
+        extends AbstractBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    @Param({"packed", "jsi", "lucene"})
+    IndexType indexType;
+
+    @Param({"1", "2", "4", "8"})
+    int shards;
+
+    @Param({"worker", "process"})
+    ShardHosting hosting;
+
+    private ShardedIndex index;
+    private PointIndex.Searcher searcher;
+    private final Neighbour neighbour = new Neighbour();
+    private PointStore queryPoints;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        PointStore points = getIndexPoints();
+        long time = System.currentTimeMillis();
+        try {
+            index = new ShardedIndex(points, shards, indexType, hosting, getOutputDirectory(), getIndexName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        logger.info("Indexed or loaded {} points in {} {} shards in {}ms", numberOfIndexPoints, shards, hosting,
+                System.currentTimeMillis() - time);
+        searcher = index.newSearcher();
+        queryPoints = getQueryPoints();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void query() {
+
+        long nearestCount = 0;
+        for (int q = 0; q < queryPoints.size(); q++) {
+            if (searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, neighbour)) {
+                nearestCount++;
+                setResult(q, neighbour.id, neighbour.distance);
+            } else {
+                setResult(q, 0, -1.0);
+            }
+        }
+
+        candidateCounts.add(nearestCount);
+        nearestCounts.add(nearestCount);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public int lookup() {
+        int q = next;
+        next = q + 1 == queryPoints.size() ? 0 : q + 1;
+        searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, neighbour);
+        return neighbour.id;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        System.out.format("%n%s %s, %d %s shards: %.2f shards searched per lookup%n",
+                ShardedBenchmark.class.getSimpleName(), indexType, shards, hosting, index.getMeanShardsSearched());
+        super.teardown();
+        try {
+            index.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs the benchmark and prints the throughput and latency percentiles, in microseconds, of each engine against
+     * the number of shards and their hosting.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ShardedBenchmark.class.getSimpleName())
+                .param("numberOfIndexPoints", "1000000", "10000000")
+                .param("queryRadiusMetres", "10000")
+                .param("distribution", "uniform")
+                .param("queryWorkload", "matching")
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        System.out.format("%nengine\tpoints\thosting\tshards\tops/s\tp50 us\tp99 us\tp99.9 us%n");
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            boolean sampled = params.getMode() == Mode.SampleTime;
+            Statistics statistics = runResult.getPrimaryResult().getStatistics();
+            System.out.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s%n",
+                    params.getParam("indexType"),
+                    params.getParam("numberOfIndexPoints"),
+                    params.getParam("hosting"),
+                    params.getParam("shards"),
+                    sampled ? "" : String.format("%.2f", runResult.getPrimaryResult().getScore()),
+                    sampled ? String.format("%.1f", statistics.getPercentile(50)) : "",
+                    sampled ? String.format("%.1f", statistics.getPercentile(99)) : "",
+                    sampled ? String.format("%.1f", statistics.getPercentile(99.9)) : "");
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The points split into shards, each a range of the Hilbert curve with its own index of any engine, hosted as the
+ * {@link ShardHosting} says, and searched by scatter-gather.
+ * <p>
+ * A nearest lookup is sent to the home shard first, the one whose bounding box is nearest the query, normally the one
+ * holding it. It then fans out, at once, to every other shard whose box is nearer than the point found, or than the
+ * radius if none was, with that distance as the radius, and gathers the nearest of the answers. A k nearest lookup
+ * fans out the same way, bounded by the distance of the k-th point from the home shard, or the radius if it found
+ * fewer, and merges the answers into the k nearest. Shards are equal ranges of the curve, so they hold the same
+ * number of points and their boxes overlap little.
+ */
+final class ShardedIndex
+        implements PointIndex, Closeable {
+
+    private static final int stopSeconds = 10;
+
+    private final Shard[] shards;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder shardsSearched = new LongAdder();
+    // the connections of every searcher, closed with the index
+    private final Queue<Connection> connections = new ConcurrentLinkedQueue<>();
+
+    /**
+     * A nearest lookup sent to a shard and answered later, so the lookups of a fan-out run together.
+     * Each searcher has its own connection to each shard.
+     */
+    private interface Connection
+            extends Closeable {
+
+        void send(double lat, double lon, double radiusMeters) throws IOException;
+
+        /**
+         * Waits for the answer to the lookup sent.
+         *
+         * @return true if a point was found, its id in the shard and its distance are set in {@code result}
+         */
+        boolean receive(Neighbour result) throws IOException;
+
+        void sendKNearest(double lat, double lon, double radiusMeters, int k) throws IOException;
+
+        /**
+         * Waits for the answer to the k nearest lookup sent and offers each point to {@code result},
+         * which holds the ids in the shard.
+         *
+         * @return the number of points found by the shard
+         */
+        int receiveKNearest(Neighbours result) throws IOException;
+    }
+
+    private static final class Shard {
+
+        final double minLat, maxLat, minLon, maxLon;
+        // the id of each point of the shard, by its position in the shard
+        final int[] ids;
+        // worker
+        PointIndex index;
+        ExecutorService executor;
+        PointIndex.Searcher searcher;
+        PointIndex.KNearestSearcher kNearestSearcher;
+        // process
+        Process process;
+        int port;
+
+        Shard(double minLat, double maxLat, double minLon, double maxLon, int[] ids) {
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.minLon = minLon;
+            this.maxLon = maxLon;
+            this.ids = ids;
+        }
+
+        double distanceMeters(double lat, double lon) {
+            return GeoMath.boxDistanceMeters(lat, lon, minLat, maxLat, minLon, maxLon);
+        }
+
+        Connection connect() throws IOException {
+            if (process == null) {
+                return new Connection() {
+                    // written on the worker thread and read once the lookup is done
+                    private final Neighbour neighbour = new Neighbour();
+                    private Neighbours neighbours;
+                    private Future<?> lookup;
+
+                    @Override
+                    public void send(double lat, double lon, double radiusMeters) {
+                        lookup = executor.submit(() -> searcher.nearest(lat, lon, radiusMeters, neighbour));
+                    }
+
+                    @Override
+                    public boolean receive(Neighbour result) throws IOException {
+                        await();
+                        return neighbour.id == 0 ? result.clear() : result.set(neighbour.id, neighbour.distance);
+                    }
+
+                    @Override
+                    public void sendKNearest(double lat, double lon, double radiusMeters, int k) {
+                        if (neighbours == null || neighbours.getK() != k) {
+                            neighbours = new Neighbours(k);
+                        }
+                        lookup = executor.submit(() -> kNearestSearcher.nearest(lat, lon, radiusMeters, neighbours));
+                    }
+
+                    @Override
+                    public int receiveKNearest(Neighbours result) throws IOException {
+                        await();
+                        for (int i = 0; i < neighbours.size(); i++) {
+                            result.offer(neighbours.getId(i), neighbours.getDistance(i));
+                        }
+                        return neighbours.size();
+                    }
+
+                    private void await() throws IOException {
+                        try {
+                            lookup.get();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException(e);
+                        } catch (ExecutionException e) {
+                            throw new IOException(e.getCause());
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            return new Connection() {
+                @Override
+                public void send(double lat, double lon, double radiusMeters) throws IOException {
+                    out.writeDouble(lat);
+                    out.writeDouble(lon);
+                    out.writeDouble(radiusMeters);
+                    out.writeInt(0);
+                    out.flush();
+                }
+
+                @Override
+                public boolean receive(Neighbour result) throws IOException {
+                    int id = in.readInt();
+                    double distance = in.readDouble();
+                    return id == 0 ? result.clear() : result.set(id, distance);
+                }
+
+                @Override
+                public void sendKNearest(double lat, double lon, double radiusMeters, int k) throws IOException {
+                    out.writeDouble(lat);
+                    out.writeDouble(lon);
+                    out.writeDouble(radiusMeters);
+                    out.writeInt(k);
+                    out.flush();
+                }
+
+                @Override
+                public int receiveKNearest(Neighbours result) throws IOException {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        int id = in.readInt();
+                        result.offer(id, in.readDouble());
+                    }
+                    return count;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    socket.close();
+                }
+            };
+        }
+
+        void close() throws IOException {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (index instanceof Closeable) {
+                ((Closeable) index).close();
+            }
+            if (process != null) {
+                // the server exits when its standard input is closed
+                process.getOutputStream().close();
+                try {
+                    if (!process.waitFor(stopSeconds, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the points into shards and indexes each with the engine, in this JVM or in a {@link ShardServer} each.
+     * The indexes are saved and loaded as the engine's own are, named after the shard, and for separate processes
+     * the points of each shard are written to a point file of its own.
+     *
+     * @param suffix the name of the index over all the points, the shards are named after it
+     */
+    ShardedIndex(PointStore points, int shardCount, IndexType indexType, ShardHosting hosting,
+                 File outputDirectory, String suffix) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1: " + shardCount);
+        }
+        int size = points.size();
+        int[] order = SpaceFillingCurve.hilbertOrder(points, true);
+        shards = new Shard[shardCount];
+        try {
+            for (int s = 0; s < shardCount; s++) {
+                int from = (int) ((long) size * s / shardCount);
+                int to = (int) ((long) size * (s + 1) / shardCount);
+                double[] lats = new double[to - from];
+                double[] lons = new double[to - from];
+                int[] ids = new int[to - from];
+                double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+                double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    double lat = points.getLat(order[i]);
+                    double lon = points.getLon(order[i]);
+                    lats[i - from] = lat;
+                    lons[i - from] = lon;
+                    ids[i - from] = PointStore.getId(order[i]);
+                    minLat = Math.min(minLat, lat);
+                    maxLat = Math.max(maxLat, lat);
+                    minLon = Math.min(minLon, lon);
+                    maxLon = Math.max(maxLon, lon);
+                }
+                Shard shard = new Shard(minLat, maxLat, minLon, maxLon, ids);
+                shards[s] = shard;
+
+                String name = "shard-" + s + "-of-" + shardCount + "-" + suffix;
+                PointStore shardPoints = new PointStore(lats, lons, to - from);
+                if (hosting == ShardHosting.worker) {
+                    shard.index = indexType.create(shardPoints, outputDirectory, name);
+                    shard.executor = Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    // only ever used on the worker thread
+                    shard.searcher = shard.index.newSearcher();
+                    shard.kNearestSearcher = shard.index.newKNearestSearcher();
+                } else {
+                    Path path = Paths.get(outputDirectory.getPath(), name + PointFile.extension);
+                    if (!Files.exists(path)) {
+                        PointFile.write(path, lats, lons, to - from);
+                    }
+                    shard.process = new ProcessBuilder(
+                            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                            "-cp", System.getProperty("java.class.path"),
+                            ShardServer.class.getName(),
+                            indexType.name(), path.toString(), outputDirectory.getPath(), name)
+                            .redirectError(ProcessBuilder.Redirect.INHERIT)
+                            .start();
+                }
+            }
+            // the servers index their shards at the same time, each prints its port when it is ready
+            for (Shard shard : shards) {
+                if (shard.process != null) {
+                    BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(shard.process.getInputStream(), StandardCharsets.UTF_8));
+                    String port = reader.readLine();
+                    if (port == null) {
+                        throw new IOException("Shard server exited with " + shard.process.waitFor());
+                    }
+                    shard.port = Integer.parseInt(port.trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * The mean number of shards each lookup was sent to, the home shard and those it fanned out to.
+     */
+    double getMeanShardsSearched() {
+        long count = lookups.sum();
+        return count == 0 ? 0 : (double) shardsSearched.sum() / count;
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        Connection[] connections = new Connection[shards.length];
+        double[] distances = new double[shards.length];
+        boolean[] sent = new boolean[shards.length];
+        Neighbour answer = new Neighbour();
+        return (lat, lon, radiusMeters, result) -> {
+            try {
+                int home = 0;
+                for (int s = 0; s < shards.length; s++) {
+                    distances[s] = shards[s].distanceMeters(lat, lon);
+                    if (distances[s] < distances[home]) {
+                        home = s;
+                    }
+                }
+                if (distances[home] >= radiusMeters) {
+                    lookups.increment();
+                    return result.clear();
+                }
+
+                Connection connection = connect(connections, home);
+                connection.send(lat, lon, radiusMeters);
+                result.clear();
+                if (connection.receive(answer)) {
+                    result.set(shards[home].ids[PointStore.getIndex(answer.id)], answer.distance);
+                }
+                int searched = 1;
+
+                // scatter to every shard that could hold a nearer point, then gather
+                double bound = result.id == 0 ? radiusMeters : result.distance;
+                for (int s = 0; s < shards.length; s++) {
+                    sent[s] = s != home && distances[s] < bound;
+                    if (sent[s]) {
+                        connect(connections, s).send(lat, lon, bound);
+                        searched++;
+                    }
+                }
+                for (int s = 0; s < shards.length; s++) {
+                    if (sent[s] && connections[s].receive(answer)
+                            && (result.id == 0 || answer.distance < result.distance)) {
+                        result.set(shards[s].ids[PointStore.getIndex(answer.id)], answer.distance);
+                    }
+                }
+                lookups.increment();
+                shardsSearched.add(searched);
+                return result.id != 0;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    private Connection connect(Connection[] connections, int shard) throws IOException {
+        if (connections[shard] == null) {
+            connections[shard] = shards[shard].connect();
+            this.connections.add(connections[shard]);
+        }
+        return connections[shard];
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        return new KNearestSearcher() {
+            private final Connection[] connections = new Connection[shards.length];
+            private final double[] distances = new double[shards.length];
+            private final boolean[] sent = new boolean[shards.length];
+            // the points of one shard, by their ids in it
+            private Neighbours answer;
+
+            @Override
+            public int nearest(double lat, double lon, double radiusMeters, Neighbours result) {
+                int k = result.getK();
+                if (answer == null || answer.getK() != k) {
+                    answer = new Neighbours(k);
+                }
+                result.clear();
+                try {
+                    int home = 0;
+                    for (int s = 0; s < shards.length; s++) {
+                        distances[s] = shards[s].distanceMeters(lat, lon);
+                        if (distances[s] < distances[home]) {
+                            home = s;
+                        }
+                    }
+                    if (distances[home] >= radiusMeters) {
+                        lookups.increment();
+                        return 0;
+                    }
+
+                    Connection connection = connect(connections, home);
+                    connection.sendKNearest(lat, lon, radiusMeters, k);
+                    gather(home, connection, result);
+                    int searched = 1;
+
+                    // scatter to every shard that could hold a point nearer than the k-th, then gather
+                    double bound = result.size() < k ? radiusMeters : result.bound();
+                    for (int s = 0; s < shards.length; s++) {
+                        sent[s] = s != home && distances[s] < bound;
+                        if (sent[s]) {
+                            connect(connections, s).sendKNearest(lat, lon, bound, k);
+                            searched++;
+                        }
+                    }
+                    for (int s = 0; s < shards.length; s++) {
+                        if (sent[s]) {
+                            gather(s, connections[s], result);
+                        }
+                    }
+                    lookups.increment();
+                    shardsSearched.add(searched);
+                    return result.sort();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            private void gather(int shard, Connection connection, Neighbours result) throws IOException {
+                answer.clear();
+                connection.receiveKNearest(answer);
+                for (int i = 0; i < answer.size(); i++) {
+                    result.offer(shards[shard].ids[PointStore.getIndex(answer.getId(i))], answer.getDistance(i));
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (Shard shard : shards) {
+            if (shard != null) {
+                try {
+                    shard.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
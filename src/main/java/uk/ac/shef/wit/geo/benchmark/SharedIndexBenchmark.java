@@ -0,0 +1,220 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One index per engine shared by all the benchmark threads, as in a service where many request threads
+ * query the same index. Each thread has its own searcher and counters, so only the index is shared.
+ * <p>
+ * The results of every thread are compared with single threaded results computed during setup,
+ * lookups that differ or fail show where an engine is not safe for concurrent searches.
+ */
+@State(Scope.Benchmark)
+public class SharedIndexBenchmark
+        extends AbstractBenchmark {
+
+    @Param({"packed", "grid", "jsi", "lucene", "geotools", "strtree", "jeo", "vptree", "quantized"})
+    IndexType indexType;
+
+    private PointIndex index;
+    private PointStore queryPoints;
+    private int[] expectedIds;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    @State(Scope.Thread)
+    public static class QueryThread {
+
+        PointIndex.Searcher searcher;
+        final Neighbour neighbour = new Neighbour();
+        long lookups;
+        long mismatches;
+        long failures;
+
+        @Setup(Level.Trial)
+        public void setup(SharedIndexBenchmark benchmark) {
+            searcher = benchmark.index.newSearcher();
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown(SharedIndexBenchmark benchmark) {
+            benchmark.lookups.add(lookups);
+            benchmark.mismatches.add(mismatches);
+            benchmark.failures.add(failures);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        PointStore points = getIndexPoints();
+        try {
+            index = indexType.create(points, getOutputDirectory(), getIndexName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        queryPoints = getQueryPoints();
+        expectedIds = new int[queryPoints.size()];
+        PointIndex.Searcher searcher = index.newSearcher();
+        Neighbour neighbour = new Neighbour();
+        for (int q = 0; q < queryPoints.size(); q++) {
+            searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, neighbour);
+            expectedIds[q] = neighbour.id;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    @Threads(1)
+    public long threads1(QueryThread thread) {
+        return query(thread);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    @Threads(2)
+    public long threads2(QueryThread thread) {
+        return query(thread);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    @Threads(4)
+    public long threads4(QueryThread thread) {
+        return query(thread);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    @Threads(8)
+    public long threads8(QueryThread thread) {
+        return query(thread);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    @Threads(Threads.MAX)
+    public long threadsMax(QueryThread thread) {
+        return query(thread);
+    }
+
+    private long query(QueryThread thread) {
+        long nearestCount = 0;
+        for (int q = 0; q < queryPoints.size(); q++) {
+            try {
+                if (thread.searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q),
+                        queryRadiusMetres, thread.neighbour)) {
+                    nearestCount++;
+                }
+                if (thread.neighbour.id != expectedIds[q]) {
+                    thread.mismatches++;
+                }
+            } catch (RuntimeException e) {
+                thread.failures++;
+            }
+        }
+        thread.lookups += queryPoints.size();
+        return nearestCount;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown(BenchmarkParams params) throws IOException {
+        System.out.format("%n%s %s, %d threads: %d lookups, %d differ from the single threaded results, %d failed%n",
+                SharedIndexBenchmark.class.getSimpleName(),
+                indexType,
+                params.getThreads(),
+                lookups.sum(),
+                mismatches.sum(),
+                failures.sum());
+        if (index instanceof Closeable) {
+            ((Closeable) index).close();
+        }
+    }
+
+    /**
+     * Runs the benchmark and prints the throughput of each engine against the number of threads,
+     * relative to a single thread with the same points, radius and queries.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SharedIndexBenchmark.class.getSimpleName())
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        Map<String, List<RunResult>> curves = new TreeMap<>();
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            String key = params.getParam("indexType") +
+                    "\t" + params.getParam("numberOfIndexPoints") +
+                    "\t" + params.getParam("queryRadiusMetres") +
+                    "\t" + params.getParam("distribution") +
+                    "\t" + params.getParam("queryWorkload");
+            curves.computeIfAbsent(key, k -> new ArrayList<>()).add(runResult);
+        }
+
+        System.out.format("%nengine\tpoints\tradius\tdistribution\tqueries\tthreads\tops/s\tspeedup%n");
+        for (Map.Entry<String, List<RunResult>> curve : curves.entrySet()) {
+            List<RunResult> points = curve.getValue();
+            points.sort(Comparator.comparingInt(r -> r.getParams().getThreads()));
+            double single = points.get(0).getPrimaryResult().getScore();
+            for (RunResult point : points) {
+                double score = point.getPrimaryResult().getScore();
+                System.out.format("%s\t%d\t%.3f\t%.2f%n",
+                        curve.getKey(), point.getParams().getThreads(), score, single == 0 ? 0 : score / single);
+            }
+        }
+    }
+}
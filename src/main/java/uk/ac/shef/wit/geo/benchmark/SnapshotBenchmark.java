@@ -0,0 +1,120 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The warm start cost of each engine, loading the index saved by an earlier run against building it again.
+ * <p>
+ * The in-memory engines load an {@link IndexSnapshot}, Lucene opens its existing index directory.
+ * Geotools and Jeospatial have no snapshot, their library structures can only be rebuilt.
+ */
+@State(Scope.Benchmark)
+public class SnapshotBenchmark
+        extends AbstractBenchmark {
+
+    @Param({"packed", "grid", "jsi", "vptree", "lucene"})
+    IndexType indexType;
+
+    // the radius only affects queries, a single value stops every load being repeated for each radius
+    @Param({"0"})
+    int queryRadiusMetres;
+
+    private PointStore points;
+    private PointIndex index;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        points = getIndexPoints();
+        // saves the snapshot, or writes the Lucene index, if there is not one already
+        index = indexType.create(points, getOutputDirectory(), getSuffix());
+        closeIndex();
+    }
+
+    private String getSuffix() {
+        return getIndexName();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public PointIndex load() throws IOException {
+        index = indexType.create(points, getOutputDirectory(), getSuffix());
+        index.newSearcher().nearest(points.getLat(0), points.getLon(0), 1, new Neighbour());
+        return index;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public PointIndex rebuild() throws IOException {
+        index = indexType.build(points, false, getOutputDirectory(), getSuffix());
+        index.newSearcher().nearest(points.getLat(0), points.getLon(0), 1, new Neighbour());
+        return index;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeIndex() throws IOException {
+        if (index instanceof Closeable) {
+            ((Closeable) index).close();
+        }
+        index = null;
+    }
+
+    /**
+     * Runs the benchmark and prints the load and rebuild times of each engine.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SnapshotBenchmark.class.getSimpleName())
+                .build();
+
+        Collection<RunResult> runResults = new Runner(opt).run();
+
+        Map<String, double[]> times = new TreeMap<>();
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            String key = params.getParam("indexType") + "\t" + params.getParam("numberOfIndexPoints");
+            boolean load = params.getBenchmark().endsWith(".load");
+            times.computeIfAbsent(key, k -> new double[2])[load ? 0 : 1] = runResult.getPrimaryResult().getScore();
+        }
+
+        System.out.format("%nengine\tpoints\tload ms\trebuild ms\tspeedup%n");
+        for (Map.Entry<String, double[]> entry : times.entrySet()) {
+            double[] loadRebuild = entry.getValue();
+            System.out.format("%s\t%.1f\t%.1f\t%.1f%n",
+                    entry.getKey(), loadRebuild[0], loadRebuild[1],
+                    loadRebuild[0] == 0 ? 0 : loadRebuild[1] / loadRebuild[0]);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Space-filling curve keys used to give spatially close points nearby positions in a sorted layout.
+ */
+final class SpaceFillingCurve {
+
+    static final int bits = 16;
+    static final int cells = 1 << bits;
+
+    private SpaceFillingCurve() {
+    }
+
+    /**
+     * Scales {@code value} in [min, max] to a curve coordinate in [0, {@link #cells}).
+     */
+    static int scale(double value, double min, double max) {
+        if (max <= min) {
+            return 0;
+        }
+        int cell = (int) ((value - min) / (max - min) * cells);
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    /**
+     * The position of the cell (x, y) along the Hilbert curve, in [0, 2^32).
+     */
+    static long hilbert(int x, int y) {
+        long d = 0;
+        for (int s = cells >>> 1; s > 0; s >>>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = cells - 1 - x;
+                    y = cells - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * The position of the cell (x, y) along the Morton (Z-order) curve, the bits of x and y interleaved.
+     */
+    static long morton(int x, int y) {
+        return spread(x) | spread(y) << 1;
+    }
+
+    private static long spread(int value) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | v << 16) & 0x0000FFFF0000FFFFL;
+        v = (v | v << 8) & 0x00FF00FF00FF00FFL;
+        v = (v | v << 4) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | v << 2) & 0x3333333333333333L;
+        v = (v | v << 1) & 0x5555555555555555L;
+        return v;
+    }
+
+    /**
+     * The indexes of the points sorted along the Hilbert curve over their bounds.
+     */
+    static int[] hilbertOrder(PointStore points, boolean parallel) {
+        int size = points.size();
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minLat = Math.min(minLat, points.getLat(i));
+            maxLat = Math.max(maxLat, points.getLat(i));
+            minLon = Math.min(minLon, points.getLon(i));
+            maxLon = Math.max(maxLon, points.getLon(i));
+        }
+
+        // sort on (hilbert << 31 | index), the index fits in 31 bits and the key in 32
+        final double fMinLat = minLat, fMaxLat = maxLat, fMinLon = minLon, fMaxLon = maxLon;
+        long[] keys = new long[size];
+        IntStream range = IntStream.range(0, size);
+        (parallel ? range.parallel() : range).forEach(i -> {
+            int x = scale(points.getLon(i), fMinLon, fMaxLon);
+            int y = scale(points.getLat(i), fMinLat, fMaxLat);
+            keys[i] = hilbert(x, y) << 31 | i;
+        });
+        if (parallel) {
+            Arrays.parallelSort(keys);
+        } else {
+            Arrays.sort(keys);
+        }
+
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        return order;
+    }
+}
@@ -0,0 +1,86 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JTS STRtree beneath Geotools, queried directly, see {@link StrTreeIndex}.
+ */
+@State(Scope.Thread)
+public class StrTreeBenchmark
+        extends AbstractBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final Neighbour neighbour = new Neighbour();
+    private PointIndex.Searcher searcher;
+
+    @Setup
+    public void setup() {
+        PointStore points = getIndexPoints();
+        long heapBefore = getUsedHeapBytes();
+        long time = System.currentTimeMillis();
+        StrTreeIndex index = new StrTreeIndex(points);
+        logger.info("Indexed {} points in {}ms", numberOfIndexPoints, System.currentTimeMillis() - time);
+        logIndexHeapUsage(heapBefore, points);
+        searcher = index.newSearcher();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public void query() {
+
+        long nearestCount = 0;
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
+            if (searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, neighbour)) {
+                nearestCount++;
+            }
+            setResult(q, neighbour.id, neighbour.distance);
+        }
+
+        candidateCounts.add(nearestCount);
+        nearestCounts.add(nearestCount);
+    }
+
+    @TearDown
+    public void teardown() {
+        super.teardown();
+    }
+
+    /**
+     * Runs this and the Geotools feature collection benchmark with the GC profiler,
+     * which reports the bytes allocated per operation alongside the throughput.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(StrTreeBenchmark.class.getSimpleName())
+                .include(GeotoolsBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
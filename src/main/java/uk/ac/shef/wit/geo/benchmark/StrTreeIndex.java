@@ -0,0 +1,231 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.lucene.geo.Rectangle;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.ItemVisitor;
+import org.locationtech.jts.index.strtree.AbstractNode;
+import org.locationtech.jts.index.strtree.ItemBoundable;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The points in a JTS {@link STRtree}, the sort-tile-recursive packed R-tree underneath Geotools' spatial index,
+ * without the Geotools feature, envelope and filter objects around it.
+ * <p>
+ * The tree is searched best-first by haversine distance over its own nodes rather than with
+ * {@link STRtree#nearestNeighbour}, which bounds the nodes by planar distance in degrees, not a lower bound on
+ * the haversine distance of the points in them, and allocates a pair object for every node it expands.
+ * The searchers allocate nothing per candidate, their queue and node list are reused between queries.
+ */
+final class StrTreeIndex
+        implements PointIndex {
+
+    static final int defaultNodeCapacity = 10;
+
+    private final PointStore points;
+    private final STRtree tree;
+
+    StrTreeIndex(PointStore points) {
+        this(points, defaultNodeCapacity);
+    }
+
+    StrTreeIndex(PointStore points, int nodeCapacity) {
+        this.points = points;
+        tree = new STRtree(nodeCapacity);
+        try (ProgressBar pg = new ProgressBar("Points", points.size())) {
+            for (int i = 0; i < points.size(); i++) {
+                // the item is the position of the point, boxed once here
+                tree.insert(new Envelope(points.getLon(i), points.getLon(i), points.getLat(i), points.getLat(i)), i);
+                pg.step();
+            }
+        }
+        tree.build();
+    }
+
+    /**
+     * Per-thread scratch state: the queue of nodes by distance and the nodes it refers to.
+     */
+    private final class Search {
+
+        private final NodeQueue queue = new NodeQueue();
+        private final List<AbstractNode> nodes = new ArrayList<>();
+
+        private void start(double lat, double lon) {
+            queue.clear();
+            nodes.clear();
+            if (!tree.isEmpty()) {
+                push(tree.getRoot(), lat, lon, Double.POSITIVE_INFINITY);
+            }
+        }
+
+        private void push(AbstractNode node, double lat, double lon, double bound) {
+            Envelope envelope = (Envelope) node.getBounds();
+            double key = GeoMath.boxSortKey(lat, lon,
+                    envelope.getMinY(), envelope.getMaxY(), envelope.getMinX(), envelope.getMaxX());
+            if (key < bound) {
+                queue.push(key, nodes.size());
+                nodes.add(node);
+            }
+        }
+
+        private AbstractNode pop() {
+            AbstractNode node = nodes.get(queue.peekNode());
+            queue.pop();
+            return node;
+        }
+
+        /**
+         * @return the position of the nearest point closer than {@code maxMeters}, or -1 if there is none
+         */
+        int nearest(double lat, double lon, double maxMeters) {
+            int nearest = -1;
+            double nearestKey = GeoMath.metersToSortKey(maxMeters);
+            start(lat, lon);
+            while (!queue.isEmpty() && queue.peekDistance() < nearestKey) {
+                AbstractNode node = pop();
+                List<?> children = node.getChildBoundables();
+                if (node.getLevel() == 0) {
+                    for (int c = 0; c < children.size(); c++) {
+                        int i = (Integer) ((ItemBoundable) children.get(c)).getItem();
+                        double key = GeoMath.sortKey(lat, lon, points.getLat(i), points.getLon(i));
+                        if (key < nearestKey) {
+                            nearestKey = key;
+                            nearest = i;
+                        }
+                    }
+                } else {
+                    for (int c = 0; c < children.size(); c++) {
+                        push((AbstractNode) children.get(c), lat, lon, nearestKey);
+                    }
+                }
+            }
+            return nearest;
+        }
+
+        /**
+         * Fills the result with the positions and sort keys of the k nearest points closer than {@code maxMeters}.
+         */
+        void nearest(double lat, double lon, double maxMeters, Neighbours result) {
+            result.clear();
+            double maxKey = GeoMath.metersToSortKey(maxMeters);
+            start(lat, lon);
+            while (!queue.isEmpty() && queue.peekDistance() < Math.min(maxKey, result.bound())) {
+                AbstractNode node = pop();
+                List<?> children = node.getChildBoundables();
+                if (node.getLevel() == 0) {
+                    for (int c = 0; c < children.size(); c++) {
+                        int i = (Integer) ((ItemBoundable) children.get(c)).getItem();
+                        double key = GeoMath.sortKey(lat, lon, points.getLat(i), points.getLon(i));
+                        if (key < maxKey && key < result.bound()) {
+                            result.offer(i, key);
+                        }
+                    }
+                } else {
+                    double bound = Math.min(maxKey, result.bound());
+                    for (int c = 0; c < children.size(); c++) {
+                        push((AbstractNode) children.get(c), lat, lon, bound);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        Search search = new Search();
+        return (lat, lon, radiusMeters, result) -> {
+            int nearest = search.nearest(lat, lon, radiusMeters);
+            return nearest < 0 ? result.clear() : result.set(PointStore.getId(nearest),
+                    GeoMath.haversinMeters(lat, lon, points.getLat(nearest), points.getLon(nearest)));
+        };
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        Search search = new Search();
+        return (lat, lon, radiusMeters, result) -> {
+            search.nearest(lat, lon, radiusMeters, result);
+            int count = result.sort();
+            for (int i = 0; i < count; i++) {
+                int position = result.getId(i);
+                result.set(i, PointStore.getId(position),
+                        GeoMath.haversinMeters(lat, lon, points.getLat(position), points.getLon(position)));
+            }
+            return count;
+        };
+    }
+
+    /**
+     * Range queries with the tree's own envelope query, the circle of a distance query as the box around it.
+     * The envelope and visitors are reused, the tree's query still allocates the list of nodes it walks.
+     */
+    private final class RangeSearch
+            implements RangeSearcher {
+
+        private final Envelope search = new Envelope();
+        private double lat, lon, radiusMeters;
+        private PointIds found;
+        private int count;
+
+        private final ItemVisitor withinDistance = item -> {
+            int i = (Integer) item;
+            if (GeoMath.haversinMeters(lat, lon, points.getLat(i), points.getLon(i)) <= radiusMeters) {
+                add(i);
+            }
+        };
+
+        // the envelopes of the points are exact, so every item the box query visits is inside the box
+        private final ItemVisitor withinBox = item -> add((Integer) item);
+
+        private void add(int i) {
+            count++;
+            if (found != null) {
+                found.add(PointStore.getId(i));
+            }
+        }
+
+        private int query(ItemVisitor visitor, PointIds result) {
+            if (result != null) {
+                result.clear();
+            }
+            found = result;
+            count = 0;
+            tree.query(search, visitor);
+            return count;
+        }
+
+        @Override
+        public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+            this.lat = lat;
+            this.lon = lon;
+            this.radiusMeters = radiusMeters;
+            Rectangle box = GeoMath.distanceBox(lat, lon, radiusMeters);
+            search.init(box.minLon, box.maxLon, box.minLat, box.maxLat);
+            return query(withinDistance, result);
+        }
+
+        @Override
+        public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+            search.init(minLon, maxLon, minLat, maxLat);
+            return query(withinBox, result);
+        }
+
+        @Override
+        public int countWithinDistance(double lat, double lon, double radiusMeters) {
+            return withinDistance(lat, lon, radiusMeters, null);
+        }
+
+        @Override
+        public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+            return withinBox(minLat, maxLat, minLon, maxLon, null);
+        }
+    }
+
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        return new RangeSearch();
+    }
+}
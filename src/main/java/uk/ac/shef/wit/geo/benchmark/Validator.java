@@ -0,0 +1,261 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Checks the nearest points found by the engines against the exact {@link GroundTruth}.
+ * <p>
+ * For every engine, number of index points and query radius it reports recall@1, the proportion of queries with a
+ * point within the radius for which the engine found the nearest one, how much further than the nearest the points
+ * found are, how far the distances the engines report are from the haversine distances of the points they found,
+ * and the time per lookup. The results files written by the benchmarks can be checked in the same way.
+ * <pre>
+ * Validator [indexType,... [numberOfIndexPoints,... [queryRadiusMetres,... [distribution,... [queryWorkload,...]]]]]
+ * Validator results
+ * </pre>
+ */
+public class Validator
+        extends AbstractBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final Pattern resultsFilePattern = Pattern.compile(
+            "results-(\\w+)-(\\d+)-(\\d+)(?:-(clusters|zipf|global))?(?:-(empty|repeating))?\\.csv");
+
+    // nearest points at the same distance, to within the precision of the distance function, are equally correct
+    private static final double tieMeters = 1e-6;
+
+    private final Map<String, GroundTruth> groundTruths = new HashMap<>();
+
+    /**
+     * Accumulates the comparison of one engine's results at one parameter point with the ground truth.
+     */
+    static final class Report {
+
+        final String engine;
+        final int numberOfIndexPoints;
+        final int queryRadiusMetres;
+        final PointDistribution distribution;
+        final QueryWorkload queryWorkload;
+        int expected;
+        int found;
+        int outsideRadius;
+        int compared;
+        double totalError;
+        double maxError;
+        int reported;
+        double totalReportedError;
+        double maxReportedError;
+        double microsPerLookup = Double.NaN;
+
+        Report(String engine, int numberOfIndexPoints, int queryRadiusMetres,
+               PointDistribution distribution, QueryWorkload queryWorkload) {
+            this.engine = engine;
+            this.numberOfIndexPoints = numberOfIndexPoints;
+            this.queryRadiusMetres = queryRadiusMetres;
+            this.distribution = distribution;
+            this.queryWorkload = queryWorkload;
+        }
+
+        /**
+         * @param id               the id of the point found by the engine, 0 if none
+         * @param reportedDistance the distance reported by the engine, negative if none
+         */
+        void add(PointStore points, PointStore queryPoints, GroundTruth groundTruth, int query,
+                 int id, double reportedDistance) {
+            int expectedId = groundTruth.getId(query, queryRadiusMetres);
+            if (expectedId != 0) {
+                expected++;
+            }
+            if (id == 0) {
+                return;
+            }
+
+            int index = PointStore.getIndex(id);
+            double distance = GeoMath.haversinMeters(queryPoints.getLat(query), queryPoints.getLon(query),
+                    points.getLat(index), points.getLon(index));
+            double error = distance - groundTruth.getDistance(query);
+            if (distance >= queryRadiusMetres) {
+                outsideRadius++;
+            } else if (id == expectedId || error <= tieMeters) {
+                found++;
+            }
+            compared++;
+            totalError += error;
+            maxError = Math.max(maxError, error);
+            if (reportedDistance >= 0) {
+                double reportedError = Math.abs(reportedDistance - distance);
+                reported++;
+                totalReportedError += reportedError;
+                maxReportedError = Math.max(maxReportedError, reportedError);
+            }
+        }
+
+        static String header() {
+            return "engine\tpoints\tradius\tdistribution\tqueries\trecall@1\tfound\texpected\toutside\t" +
+                    "meanError\tmaxError\tmeanReportedError\tmaxReportedError\tus/lookup";
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%d\t%d\t%s\t%s\t%.4f\t%d\t%d\t%d\t%.3f\t%.3f\t%.3f\t%.3f\t%.2f",
+                    engine, numberOfIndexPoints, queryRadiusMetres, distribution, queryWorkload,
+                    expected == 0 ? 1 : (double) found / expected, found, expected, outsideRadius,
+                    compared == 0 ? 0 : totalError / compared, maxError,
+                    reported == 0 ? 0 : totalReportedError / reported, maxReportedError,
+                    microsPerLookup);
+        }
+    }
+
+    GroundTruth getGroundTruth(PointStore points) {
+        return groundTruths.computeIfAbsent(getIndexName() + "/" + getQueryName(), name -> {
+            long time = System.currentTimeMillis();
+            GroundTruth groundTruth = GroundTruth.compute(points, getQueryPoints());
+            logger.info("Ground truth for {} in {}ms", name, System.currentTimeMillis() - time);
+            return groundTruth;
+        });
+    }
+
+    /**
+     * Builds each engine over the index points and checks its nearest points at each query radius.
+     */
+    List<Report> validate(List<IndexType> indexTypes, int[] radii) throws IOException {
+        PointStore points = getIndexPoints();
+        PointStore queryPoints = getQueryPoints();
+        GroundTruth groundTruth = getGroundTruth(points);
+        List<Report> reports = new ArrayList<>();
+        for (IndexType indexType : indexTypes) {
+            PointIndex index = indexType.create(points, getOutputDirectory(), getIndexName());
+            PointIndex.Searcher searcher = index.newSearcher();
+            Neighbour neighbour = new Neighbour();
+            for (int radius : radii) {
+                Report report = new Report(indexType.name(), numberOfIndexPoints, radius,
+                        distribution, queryWorkload);
+                long time = System.nanoTime();
+                int[] ids = new int[queryPoints.size()];
+                double[] distances = new double[queryPoints.size()];
+                for (int q = 0; q < queryPoints.size(); q++) {
+                    searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), radius, neighbour);
+                    ids[q] = neighbour.id;
+                    distances[q] = neighbour.distance;
+                }
+                report.microsPerLookup = (System.nanoTime() - time) / 1000.0 / queryPoints.size();
+                for (int q = 0; q < queryPoints.size(); q++) {
+                    report.add(points, queryPoints, groundTruth, q, ids[q], distances[q]);
+                }
+                reports.add(report);
+                System.out.println(report);
+            }
+            if (index instanceof Closeable) {
+                ((Closeable) index).close();
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Checks the results files, {@code results-<benchmark>-<numberOfIndexPoints>-<queryRadiusMetres>.csv}
+     * followed by the distribution and query workload if they are not the default,
+     * written by the benchmarks to the output directory.
+     */
+    List<Report> validateResultsFiles() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(getOutputDirectory().toPath(), "results-*.csv")) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(null);
+
+        List<Report> reports = new ArrayList<>();
+        PointStore points = null;
+        for (Path path : paths) {
+            Matcher matcher = resultsFilePattern.matcher(path.getFileName().toString());
+            if (!matcher.matches()) {
+                continue;
+            }
+            int size = Integer.parseInt(matcher.group(2));
+            PointDistribution fileDistribution = matcher.group(4) == null ?
+                    PointDistribution.uniform : PointDistribution.valueOf(matcher.group(4));
+            if (points == null || size != numberOfIndexPoints || fileDistribution != distribution) {
+                numberOfIndexPoints = size;
+                distribution = fileDistribution;
+                points = getIndexPoints();
+            }
+            queryWorkload = matcher.group(5) == null ? QueryWorkload.matching : QueryWorkload.valueOf(matcher.group(5));
+            PointStore queryPoints = getQueryPoints();
+            GroundTruth groundTruth = getGroundTruth(points);
+            Report report = new Report(matcher.group(1), numberOfIndexPoints, Integer.parseInt(matcher.group(3)),
+                    distribution, queryWorkload);
+            try (BufferedReader reader = Files.newBufferedReader(path)) {
+                int q = 0;
+                for (String line = reader.readLine(); line != null && q < queryPoints.size(); line = reader.readLine()) {
+                    String[] fields = line.split("\t");
+                    report.add(points, queryPoints, groundTruth, q++,
+                            Integer.parseInt(fields[0]), Double.parseDouble(fields[1]));
+                }
+                if (q != queryPoints.size()) {
+                    logger.error("{} has {} results for {} query points", path, q, queryPoints.size());
+                }
+            }
+            reports.add(report);
+            System.out.println(report);
+        }
+        return reports;
+    }
+
+    private static int[] parseInts(String value) {
+        return Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    public static void main(String[] args) {
+        Validator validator = new Validator();
+        System.out.println(Report.header());
+        try {
+            if (args.length > 0 && args[0].equals("results")) {
+                validator.validateResultsFiles();
+                return;
+            }
+
+            List<IndexType> indexTypes = args.length > 0 ?
+                    Arrays.stream(args[0].split(",")).map(IndexType::valueOf).collect(Collectors.toList()) :
+                    Arrays.asList(IndexType.values());
+            int[] sizes = args.length > 1 ? parseInts(args[1]) : new int[]{10000, 100000, 1000000, 10000000};
+            int[] radii = args.length > 2 ? parseInts(args[2]) : new int[]{1000, 10000, 100000, 1000000};
+            List<PointDistribution> distributions = args.length > 3 ?
+                    Arrays.stream(args[3].split(",")).map(PointDistribution::valueOf).collect(Collectors.toList()) :
+                    Collections.singletonList(PointDistribution.uniform);
+            List<QueryWorkload> queryWorkloads = args.length > 4 ?
+                    Arrays.stream(args[4].split(",")).map(QueryWorkload::valueOf).collect(Collectors.toList()) :
+                    Collections.singletonList(QueryWorkload.matching);
+            for (PointDistribution distribution : distributions) {
+                validator.distribution = distribution;
+                for (QueryWorkload queryWorkload : queryWorkloads) {
+                    validator.queryWorkload = queryWorkload;
+                    for (int size : sizes) {
+                        validator.numberOfIndexPoints = size;
+                        validator.validate(indexTypes, radii);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("", e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link DistanceKernel#simd} scan, kept apart so the Vector API is only loaded when it is used.
+ * <p>
+ * Each lane keeps the nearest point it has seen and its position, the lanes are reduced to the nearest once at the
+ * end, and the points left over after the last whole vector are scanned one at a time. Positions are held as
+ * doubles, exact far beyond the size of an array, so they can be blended with the same masks as the distances.
+ */
+final class VectorDistanceKernel {
+
+    private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+    // 0, 1, 2, ... one per lane
+    private static final DoubleVector lanes = DoubleVector.zero(species).addIndex(1);
+
+    private VectorDistanceKernel() {
+    }
+
+    static int nearest(double[] xs, double[] ys, double[] zs, int from, int to,
+                       double x, double y, double z, double bound) {
+        int nearest = -1;
+        int i = from;
+        int upper = from + species.loopBound(to - from);
+        if (i < upper) {
+            DoubleVector qx = DoubleVector.broadcast(species, x);
+            DoubleVector qy = DoubleVector.broadcast(species, y);
+            DoubleVector qz = DoubleVector.broadcast(species, z);
+            DoubleVector best = DoubleVector.broadcast(species, bound);
+            DoubleVector bestPositions = DoubleVector.broadcast(species, -1);
+            DoubleVector positions = lanes.add(from);
+            DoubleVector step = DoubleVector.broadcast(species, species.length());
+            for (; i < upper; i += species.length()) {
+                DoubleVector dx = DoubleVector.fromArray(species, xs, i).sub(qx);
+                DoubleVector dy = DoubleVector.fromArray(species, ys, i).sub(qy);
+                DoubleVector dz = DoubleVector.fromArray(species, zs, i).sub(qz);
+                DoubleVector chord2 = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz));
+                VectorMask<Double> nearer = chord2.lt(best);
+                best = best.blend(chord2, nearer);
+                bestPositions = bestPositions.blend(positions, nearer);
+                positions = positions.add(step);
+            }
+            double min = best.reduceLanes(VectorOperators.MIN);
+            if (min < bound) {
+                // the first of the positions holding the minimum, as the scalar scan finds
+                nearest = (int) bestPositions
+                        .blend(Double.POSITIVE_INFINITY, best.compare(VectorOperators.NE, min))
+                        .reduceLanes(VectorOperators.MIN);
+                bound = min;
+            }
+        }
+        int tail = DistanceKernel.nearestScalar(xs, ys, zs, i, to, x, y, z, bound);
+        return tail < 0 ? nearest : tail;
+    }
+}
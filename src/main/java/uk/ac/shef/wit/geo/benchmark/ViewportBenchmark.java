@@ -0,0 +1,118 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Box range queries against every engine, see {@link PointIndex.RangeSearcher}: the points inside a square viewport
+ * {@link #viewportMetres} on a side centred on each query point, clipped at the poles and the antimeridian, both
+ * collecting the ids and only counting them.
+ * <p>
+ * As in {@link RangeBenchmark}, each operation is a batch of all the query points and the points found and queries
+ * run are counted by {@link RangeBenchmark.Results}. Run with the distance queries by {@link RangeBenchmark#main}.
+ */
+@State(Scope.Thread)
+public class ViewportBenchmark
+        extends AbstractBenchmark {
+
+    @Param({"packed", "grid", "jsi", "lucene", "geotools", "strtree", "jeo", "vptree", "quantized"})
+    IndexType indexType;
+
+    @Param({"1000", "10000", "100000"})
+    int viewportMetres;
+
+    // the radius is not used by box queries, a single value stops every box being repeated for each radius
+    @Param({"0"})
+    int queryRadiusMetres;
+
+    private PointIndex index;
+    private PointIndex.RangeSearcher searcher;
+    private final PointIds result = new PointIds();
+    private int size;
+    private double[] minLats, maxLats, minLons, maxLons;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        try {
+            index = indexType.create(getIndexPoints(), getOutputDirectory(), getIndexName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        searcher = index.newRangeSearcher();
+
+        PointStore queryPoints = getQueryPoints();
+        size = queryPoints.size();
+        minLats = new double[size];
+        maxLats = new double[size];
+        minLons = new double[size];
+        maxLons = new double[size];
+        double halfLat = Math.toDegrees(viewportMetres / 2.0 / GeoMath.earthRadiusMeters);
+        for (int q = 0; q < size; q++) {
+            double lat = queryPoints.getLat(q);
+            double lon = queryPoints.getLon(q);
+            double halfLon = Math.min(180, halfLat / Math.cos(Math.toRadians(lat)));
+            minLats[q] = Math.max(-90, lat - halfLat);
+            maxLats[q] = Math.min(90, lat + halfLat);
+            minLons[q] = Math.max(-180, lon - halfLon);
+            maxLons[q] = Math.min(180, lon + halfLon);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long withinBox(RangeBenchmark.Results results) {
+        long count = 0;
+        for (int q = 0; q < size; q++) {
+            count += searcher.withinBox(minLats[q], maxLats[q], minLons[q], maxLons[q], result);
+        }
+        results.points += count;
+        results.queries += size;
+        return count;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long countWithinBox(RangeBenchmark.Results results) {
+        long count = 0;
+        for (int q = 0; q < size; q++) {
+            count += searcher.countWithinBox(minLats[q], maxLats[q], minLons[q], maxLons[q]);
+        }
+        results.points += count;
+        results.queries += size;
+        return count;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeIndex() {
+        if (index instanceof Closeable) {
+            try {
+                ((Closeable) index).close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Vantage-point tree over the points projected once onto the unit sphere.
+ * <p>
+ * The tree is partitioned by the Euclidean chord between the xyz positions, a metric with the same order as the
+ * great circle distance, so no trigonometry is needed while building or searching and metres are only computed
+ * for the results. The tree is implicit in the order of the points: the vantage point of the range
+ * {@code [from, to)} is at {@code from}, the points inside its median radius follow it, then those outside.
+ * Ranges of at most {@link #leafSize} points are scanned.
+ */
+final class VpTree
+        implements PointIndex {
+
+    static final int leafSize = 8;
+
+    // ranges larger than this are built as separate fork/join tasks
+    private static final int parallelThreshold = 1 << 14;
+
+    private final PointStore points;
+    private final int size;
+    // unit sphere positions in tree order
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    // median chord of the vantage point at each node position, unused for leaf ranges
+    private final double[] radii;
+    // position of each point in the point store
+    private final int[] indexes;
+
+    VpTree(PointStore points) {
+        this(points, true);
+    }
+
+    VpTree(PointStore points, boolean parallel) {
+        this.points = points;
+        this.size = points.size();
+        xs = new double[size];
+        ys = new double[size];
+        zs = new double[size];
+        radii = new double[size];
+        indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            double lat = Math.toRadians(points.getLat(i));
+            double lon = Math.toRadians(points.getLon(i));
+            xs[i] = Math.cos(lat) * Math.cos(lon);
+            ys[i] = Math.cos(lat) * Math.sin(lon);
+            zs[i] = Math.sin(lat);
+            indexes[i] = i;
+        }
+        double[] chords = new double[size];
+        Build build = new Build(chords, 0, size, parallel);
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(build);
+        } else {
+            build.compute();
+        }
+    }
+
+    private VpTree(PointStore points, double[] xs, double[] ys, double[] zs, double[] radii, int[] indexes) {
+        this.points = points;
+        this.size = indexes.length;
+        this.xs = xs;
+        this.ys = ys;
+        this.zs = zs;
+        this.radii = radii;
+        this.indexes = indexes;
+    }
+
+    void save(IndexSnapshot.Writer writer) throws IOException {
+        writer.putDoubles(xs)
+                .putDoubles(ys)
+                .putDoubles(zs)
+                .putDoubles(radii)
+                .putInts(indexes);
+    }
+
+    static VpTree load(IndexSnapshot.Reader reader, PointStore points) throws IOException {
+        return new VpTree(points, reader.getDoubles(), reader.getDoubles(), reader.getDoubles(),
+                reader.getDoubles(), reader.getInts());
+    }
+
+    /**
+     * Builds the subtree of a range: a random vantage point is moved to the front and the rest of the range
+     * is partitioned about the median chord to it, then both halves are built, in parallel if they are large.
+     */
+    private final class Build
+            extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[] chords;
+        private final int from;
+        private final int to;
+        private final boolean parallel;
+
+        Build(double[] chords, int from, int to, boolean parallel) {
+            this.chords = chords;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected void compute() {
+            int lo = from;
+            int hi = to;
+            // the outside half of each range is built by a task or by the recursive call,
+            // the loop carries on with the inside half
+            while (hi - lo > leafSize) {
+                swap(lo, lo + new SplittableRandom(lo).nextInt(hi - lo));
+                for (int i = lo + 1; i < hi; i++) {
+                    chords[i] = chord(xs[lo], ys[lo], zs[lo], i);
+                }
+                int mid = outside(lo, hi);
+                select(lo + 1, hi, mid);
+                radii[lo] = chords[mid];
+                if (parallel && hi - mid > parallelThreshold) {
+                    invokeAll(new Build(chords, lo + 1, mid, true), new Build(chords, mid, hi, true));
+                    return;
+                }
+                new Build(chords, mid, hi, false).compute();
+                lo++;
+                hi = mid;
+            }
+        }
+
+        /**
+         * Moves the k-th smallest chord of the range to k, smaller chords before it and larger after it.
+         */
+        private void select(int lo, int hi, int k) {
+            hi--;
+            while (lo < hi) {
+                double pivot = chords[(lo + hi) >>> 1];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (chords[i] < pivot) {
+                        i++;
+                    }
+                    while (chords[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            double chord = chords[i];
+            chords[i] = chords[j];
+            chords[j] = chord;
+            double x = xs[i];
+            xs[i] = xs[j];
+            xs[j] = x;
+            double y = ys[i];
+            ys[i] = ys[j];
+            ys[j] = y;
+            double z = zs[i];
+            zs[i] = zs[j];
+            zs[j] = z;
+            int index = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = index;
+        }
+    }
+
+    /**
+     * The start of the outside half of the range whose vantage point is at {@code from}.
+     */
+    private static int outside(int from, int to) {
+        return from + 1 + (to - from - 1) / 2;
+    }
+
+    private double chord(double x, double y, double z, int i) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        double dz = zs[i] - z;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * The chord of a great circle distance, infinite beyond half the circumference so every point is within it.
+     */
+    static double metersToChord(double meters) {
+        double angle = meters / GeoMath.earthRadiusMeters;
+        return angle >= Math.PI ? Double.POSITIVE_INFINITY : 2 * Math.sin(angle / 2);
+    }
+
+    /**
+     * Per-thread search state, the query position and the nearest points so far.
+     */
+    private final class Search {
+
+        private double x, y, z;
+        private int nearest;
+        private double nearestChord;
+        private Neighbours neighbours;
+        private double maxChord;
+        // range search: the query, the box when it is one, and the points found
+        private double lat, lon, radiusMeters;
+        private double minLat, maxLat, minLon, maxLon;
+        private boolean box;
+        private PointIds found;
+        private int count;
+
+        private void start(double lat, double lon) {
+            double latRadians = Math.toRadians(lat);
+            double lonRadians = Math.toRadians(lon);
+            x = Math.cos(latRadians) * Math.cos(lonRadians);
+            y = Math.cos(latRadians) * Math.sin(lonRadians);
+            z = Math.sin(latRadians);
+        }
+
+        /**
+         * @return the position in the tree of the nearest point closer than {@code maxMeters}, or -1 if there is none
+         */
+        int nearest(double lat, double lon, double maxMeters) {
+            start(lat, lon);
+            nearest = -1;
+            nearestChord = metersToChord(maxMeters);
+            nearest(0, size);
+            return nearest;
+        }
+
+        private void nearest(int from, int to) {
+            while (to - from > leafSize) {
+                double chord = chord(x, y, z, from);
+                if (chord < nearestChord) {
+                    nearestChord = chord;
+                    nearest = from;
+                }
+                double radius = radii[from];
+                int mid = outside(from, to);
+                // the nearer half first, the other only if the ball of the nearest so far crosses the radius
+                if (chord < radius) {
+                    nearest(from + 1, mid);
+                    if (chord + nearestChord < radius) {
+                        return;
+                    }
+                    from = mid;
+                } else {
+                    nearest(mid, to);
+                    if (chord - nearestChord > radius) {
+                        return;
+                    }
+                    from++;
+                    to = mid;
+                }
+            }
+            for (int i = from; i < to; i++) {
+                double chord = chord(x, y, z, i);
+                if (chord < nearestChord) {
+                    nearestChord = chord;
+                    nearest = i;
+                }
+            }
+        }
+
+        /**
+         * Fills the result with the tree positions and chords of the k nearest points closer than {@code maxMeters}.
+         */
+        void nearest(double lat, double lon, double maxMeters, Neighbours result) {
+            start(lat, lon);
+            result.clear();
+            neighbours = result;
+            maxChord = metersToChord(maxMeters);
+            kNearest(0, size);
+        }
+
+        private double bound() {
+            return Math.min(maxChord, neighbours.bound());
+        }
+
+        private void offer(int i, double chord) {
+            if (chord < bound()) {
+                neighbours.offer(i, chord);
+            }
+        }
+
+        private void kNearest(int from, int to) {
+            while (to - from > leafSize) {
+                double chord = chord(x, y, z, from);
+                offer(from, chord);
+                double radius = radii[from];
+                int mid = outside(from, to);
+                if (chord < radius) {
+                    kNearest(from + 1, mid);
+                    if (chord + bound() < radius) {
+                        return;
+                    }
+                    from = mid;
+                } else {
+                    kNearest(mid, to);
+                    if (chord - bound() > radius) {
+                        return;
+                    }
+                    from++;
+                    to = mid;
+                }
+            }
+            for (int i = from; i < to; i++) {
+                offer(i, chord(x, y, z, i));
+            }
+        }
+    }
+
+    /**
+     * Ranges whose ball, the chord of the vantage point's median radius, the query ball does not reach are skipped,
+     * the chord within the ball is a cheap filter before the test on the point itself.
+     */
+    private final class RangeSearch
+            implements RangeSearcher {
+
+        private final Search search = new Search();
+
+        /**
+         * Finds the points within the distance of (lat, lon) and, for a box, inside the box.
+         *
+         * @param result filled with the ids of the points, or null to only count them
+         */
+        private int within(double lat, double lon, double radiusMeters, boolean box, PointIds result) {
+            if (result != null) {
+                result.clear();
+            }
+            search.start(lat, lon);
+            search.lat = lat;
+            search.lon = lon;
+            search.radiusMeters = radiusMeters;
+            search.box = box;
+            search.maxChord = metersToChord(radiusMeters + GeoMath.marginMeters);
+            search.found = result;
+            search.count = 0;
+            within(0, size);
+            return search.count;
+        }
+
+        private void within(int from, int to) {
+            Search s = search;
+            while (to - from > leafSize) {
+                double chord = test(from);
+                double radius = radii[from];
+                int mid = outside(from, to);
+                if (chord - s.maxChord <= radius) {
+                    within(from + 1, mid);
+                }
+                if (chord + s.maxChord < radius) {
+                    return;
+                }
+                from = mid;
+            }
+            for (int i = from; i < to; i++) {
+                test(i);
+            }
+        }
+
+        /**
+         * @return the chord from the query to the point
+         */
+        private double test(int i) {
+            Search s = search;
+            double chord = chord(s.x, s.y, s.z, i);
+            if (chord <= s.maxChord) {
+                int index = indexes[i];
+                double lat = points.getLat(index);
+                double lon = points.getLon(index);
+                if (s.box ? GeoMath.inBox(lat, lon, s.minLat, s.maxLat, s.minLon, s.maxLon) :
+                        GeoMath.haversinMeters(s.lat, s.lon, lat, lon) <= s.radiusMeters) {
+                    s.count++;
+                    if (s.found != null) {
+                        s.found.add(PointStore.getId(index));
+                    }
+                }
+            }
+            return chord;
+        }
+
+        @Override
+        public int withinDistance(double lat, double lon, double radiusMeters, PointIds result) {
+            return within(lat, lon, radiusMeters, false, result);
+        }
+
+        /**
+         * The box is searched as the ball around its centre through its corners.
+         */
+        @Override
+        public int withinBox(double minLat, double maxLat, double minLon, double maxLon, PointIds result) {
+            search.minLat = minLat;
+            search.maxLat = maxLat;
+            search.minLon = minLon;
+            search.maxLon = maxLon;
+            return within((minLat + maxLat) / 2, (minLon + maxLon) / 2,
+                    GeoMath.boxRadiusMeters(minLat, maxLat, minLon, maxLon), true, result);
+        }
+
+        @Override
+        public int countWithinDistance(double lat, double lon, double radiusMeters) {
+            return within(lat, lon, radiusMeters, false, null);
+        }
+
+        @Override
+        public int countWithinBox(double minLat, double maxLat, double minLon, double maxLon) {
+            return withinBox(minLat, maxLat, minLon, maxLon, null);
+        }
+    }
+
+    @Override
+    public Searcher newSearcher() {
+        Search search = new Search();
+        return (lat, lon, radiusMeters, result) -> {
+            int nearest = search.nearest(lat, lon, radiusMeters);
+            if (nearest < 0) {
+                return result.clear();
+            }
+            int index = indexes[nearest];
+            return result.set(PointStore.getId(index),
+                    GeoMath.haversinMeters(lat, lon, points.getLat(index), points.getLon(index)));
+        };
+    }
+
+    @Override
+    public KNearestSearcher newKNearestSearcher() {
+        Search search = new Search();
+        return (lat, lon, radiusMeters, result) -> {
+            search.nearest(lat, lon, radiusMeters, result);
+            int count = result.sort();
+            for (int i = 0; i < count; i++) {
+                int index = indexes[result.getId(i)];
+                result.set(i, PointStore.getId(index),
+                        GeoMath.haversinMeters(lat, lon, points.getLat(index), points.getLon(index)));
+            }
+            return count;
+        };
+    }
+
+    @Override
+    public RangeSearcher newRangeSearcher() {
+        return new RangeSearch();
+    }
+}
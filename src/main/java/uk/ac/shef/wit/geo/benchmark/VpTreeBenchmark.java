@@ -0,0 +1,74 @@
+package uk.ac.shef.wit.geo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The vantage-point tree over unit sphere positions, see {@link VpTree}.
+ */
+@State(Scope.Thread)
+public class VpTreeBenchmark
+        extends AbstractBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final Neighbour neighbour = new Neighbour();
+    private PointIndex.Searcher searcher;
+
+    @Setup
+    public void setup() {
+        logger.info("Creating or reading {} points", numberOfIndexPoints);
+        PointStore points = getIndexPoints();
+        long heapBefore = getUsedHeapBytes();
+        logger.info("Indexing points");
+        long time = System.currentTimeMillis();
+        try {
+            searcher = IndexType.vptree.create(points, getOutputDirectory(), getIndexName())
+                    .newSearcher();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        logger.info("Indexed or loaded {} points in {}ms", numberOfIndexPoints, System.currentTimeMillis() - time);
+        logIndexHeapUsage(heapBefore, points);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public void query() {
+
+        long nearestCount = 0;
+        PointStore queryPoints = getQueryPoints();
+        for (int q = 0; q < queryPoints.size(); q++) {
+            if (searcher.nearest(queryPoints.getLat(q), queryPoints.getLon(q), queryRadiusMetres, neighbour)) {
+                nearestCount++;
+            }
+            setResult(q, neighbour.id, neighbour.distance);
+        }
+
+        candidateCounts.add(nearestCount);
+        nearestCounts.add(nearestCount);
+    }
+
+    @TearDown
+    public void teardown() {
+        super.teardown();
+    }
+}